@@ -0,0 +1,300 @@
+package com.tftpclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * A configurable TFTP client whose transfers run in the background and return a {@link CompletableFuture}.
+ * <p>
+ * The transfers are queued and run by a fixed number of worker threads, so any number of them can be started without
+ * blocking the caller or creating a thread per transfer. A future completes with the {@link TransferResult} of the transfer
+ * if it succeeded, or exceptionally with a {@link TransferFailedException} (or one of its subclasses) otherwise.
+ * Cancelling a future stops its transfer, and a transfer whose deadline passed while it was queued fails without being sent.
+ * <p>
+ * Small files can also be received in memory with {@link #receiveBytesAsync(String)}, without any local file.
+ */
+public class AsyncTFTPClient implements AutoCloseable {
+	//Default maximum size of a file received in memory
+	private static final long defaultMaxBytes = 64*1024;
+	//Keeps the sockets of the receptions open for a lost last ACK, so their file or data is available right away
+	private static final ExecutorService dallier = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r,"TFTP dally");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final InetAddress serverIP;
+	private final int serverPort;
+	private final ServerGroup group;
+	private final ExecutorService executor;
+	//Transfers queued or running, cancelled by shutdownNow()
+	private final Set<CompletableFuture<TransferResult>> pending = ConcurrentHashMap.newKeySet();
+	//Receptions in memory running, by mode and file name, shared by all the callers asking for the same file meanwhile
+	private final Map<String,CompletableFuture<ByteBuffer>> inFlight = new ConcurrentHashMap<>();
+
+	private volatile TransferMode mode = TFTPClient.defaultMode;
+	private volatile long deadline;
+	private volatile long rateLimit;
+	private volatile long maxBytes = defaultMaxBytes;
+
+	/**
+	 * @param parallelism Maximum number of transfers running at the same time, the other ones wait in a queue
+	 */
+	public AsyncTFTPClient(InetAddress serverIP, int serverPort, int parallelism) {
+		this(serverIP,serverPort,null,parallelism);
+	}
+
+	/**
+	 * Creates a client sending each transfer to the best server of the group, see {@link ServerGroup}
+	 */
+	public AsyncTFTPClient(ServerGroup group, int parallelism) {
+		this(null,0,group,parallelism);
+	}
+
+	public AsyncTFTPClient(int parallelism) {
+		this(TFTPClient.defaultIP,TFTPClient.defaultServerPort,parallelism);
+	}
+
+	private AsyncTFTPClient(InetAddress serverIP, int serverPort, ServerGroup group, int parallelism) {
+		if(parallelism<1)
+			throw new IllegalArgumentException("The parallelism must be greater than 0");
+		this.serverIP=serverIP;
+		this.serverPort=serverPort;
+		this.group=group;
+		this.executor=Executors.newFixedThreadPool(parallelism,r -> {
+			Thread t = new Thread(r,"TFTP async transfer");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	public TransferMode getMode() {
+		return mode;
+	}
+
+	public void setMode(TransferMode mode) {
+		this.mode=mode;
+	}
+
+	/**
+	 * Sets the default deadline of the next transfers, in ms from the call of sendAsync/receiveAsync (0 for none).
+	 * The time spent in the queue counts.
+	 */
+	public void setDeadline(long deadline) {
+		this.deadline=deadline;
+	}
+
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Sets the default bandwidth limit of the next transfers, in bytes per second (0 for none), see {@link TransferMonitor#setRateLimit(long)}
+	 */
+	public void setRateLimit(long rateLimit) {
+		this.rateLimit=rateLimit;
+	}
+
+	public long getRateLimit() {
+		return rateLimit;
+	}
+
+	/**
+	 * Sets the maximum size of a file received in memory, 64 KiB by default. A longer file is refused by {@link #receiveBytesAsync(String)}.
+	 */
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes=maxBytes;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Sends a file with the default settings of the client
+	 */
+	public CompletableFuture<TransferResult> sendAsync(String filePath) {
+		return sendAsync(filePath,new File(filePath).getName(),newMonitor());
+	}
+
+	public CompletableFuture<TransferResult> sendAsync(String filePath, String remoteName) {
+		return sendAsync(filePath,remoteName,newMonitor());
+	}
+
+	/**
+	 * Sends a file, the limits of the monitor (deadline, bandwidth) are used instead of the default ones of the client.
+	 * The monitor can be read while the transfer runs.
+	 */
+	public CompletableFuture<TransferResult> sendAsync(String filePath, String remoteName, TransferMonitor monitor) {
+		TransferMode mode = this.mode;
+		return submit(filePath,remoteName,monitor,() -> group!=null
+				? group.sendFile(filePath,remoteName,mode,monitor)
+				: TFTPClient.sendFile(serverIP,serverPort,filePath,remoteName,mode,monitor),null);
+	}
+
+	/**
+	 * Receives a file with the default settings of the client, it is written in the local/ directory
+	 */
+	public CompletableFuture<TransferResult> receiveAsync(String fileName) {
+		return receiveAsync(fileName,null,newMonitor());
+	}
+
+	public CompletableFuture<TransferResult> receiveAsync(String fileName, File localFile) {
+		return receiveAsync(fileName,localFile,newMonitor());
+	}
+
+	/**
+	 * Receives a file, the limits of the monitor (deadline, bandwidth) are used instead of the default ones of the client
+	 * @param localFile File to write, null for a new file in the local/ directory
+	 */
+	public CompletableFuture<TransferResult> receiveAsync(String fileName, File localFile, TransferMonitor monitor) {
+		TransferMode mode = this.mode;
+		File[] written = {localFile};
+		return submit(null,fileName,monitor,() -> {
+			if(group!=null)
+				return group.receiveFile(fileName,written,mode,monitor,dallier);
+			if(written[0]==null)
+				written[0]=TFTPClient.newLocalFile(fileName);
+			return TFTPClient.receiveFile(serverIP,serverPort,fileName,written[0],mode,monitor,dallier);
+		},written);
+	}
+
+	/**
+	 * Receives a small file in memory : no local file is written and the result is available as soon as the last block is received.
+	 * <p>
+	 * If the same file is already being received in memory (with the same mode), no new request is sent and the caller gets the
+	 * data of the running one. Each caller gets its own read-only view of the data. Cancelling the future of a caller does not stop
+	 * the reception, which may be shared. The deadline is the default one of the client.
+	 * @return the content of the file, or fails with a {@link TransferFailedException} (e.g. if the file is longer than {@link #getMaxBytes()})
+	 */
+	public CompletableFuture<ByteBuffer> receiveBytesAsync(String fileName) {
+		TransferMode mode = this.mode;
+		String key = mode.value+'/'+fileName;
+		CompletableFuture<ByteBuffer> created = new CompletableFuture<>();
+		CompletableFuture<ByteBuffer> shared = inFlight.putIfAbsent(key,created);
+		if(shared==null){
+			shared = created;
+			Buffer buffer = new Buffer();
+			TransferMonitor monitor = newMonitor();
+			long maxBytes = this.maxBytes;
+			submit(null,fileName,monitor,() -> group!=null
+					? group.receiveFile(fileName,buffer,mode,monitor,maxBytes,dallier)
+					: TFTPClient.receiveFile(serverIP,serverPort,fileName,buffer,mode,monitor,maxBytes,dallier),null)
+					.whenComplete((r,e) -> {
+						//Removed before completing, so a caller that sees the result never joins this reception again
+						inFlight.remove(key,created);
+						if(e!=null)
+							created.completeExceptionally(e);
+						else
+							created.complete(buffer.toBuffer());
+					});
+		}
+		return shared.thenApply(ByteBuffer::asReadOnlyBuffer);
+	}
+
+	/**
+	 * A growing buffer whose content can be read without being copied
+	 */
+	private static class Buffer extends ByteArrayOutputStream {
+		Buffer() {
+			super(512);
+		}
+
+		synchronized ByteBuffer toBuffer() {
+			return ByteBuffer.wrap(buf,0,count).asReadOnlyBuffer();
+		}
+	}
+
+	private TransferMonitor newMonitor() {
+		TransferMonitor monitor = new TransferMonitor();
+		monitor.setDeadline(deadline);
+		monitor.setRateLimit(rateLimit);
+		return monitor;
+	}
+
+	/**
+	 * Queues a transfer and links its future to its monitor
+	 * @param written For a reception, holds the local file once it is chosen
+	 */
+	private CompletableFuture<TransferResult> submit(String localFile, String remoteFile, TransferMonitor monitor, Callable<Integer> transfer, File[] written) {
+		CompletableFuture<TransferResult> future = new CompletableFuture<>();
+		//Cancelling the future stops the transfer, whether it is queued or running
+		pending.add(future);
+		future.whenComplete((r,e) -> {
+			pending.remove(future);
+			if(future.isCancelled())
+				monitor.cancel();
+		});
+		try {
+			executor.execute(() -> {
+				if(future.isDone())
+					return;
+				int result;
+				if(monitor.shouldStop())
+					//Not worth sending : nobody is waiting for the result anymore
+					result = monitor.isCancelled() ? -6 : -7;
+				else{
+					try {
+						result = transfer.call();
+					} catch (Exception e) {
+						future.completeExceptionally(e);
+						return;
+					}
+				}
+				if(!monitor.isDone())
+					monitor.finish(result);
+				String local = written!=null && written[0]!=null ? written[0].getPath() : localFile;
+				complete(future,new TransferResult(local,remoteFile,monitor));
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(new IllegalStateException("The client is closed",e));
+		}
+		return future;
+	}
+
+	private static void complete(CompletableFuture<TransferResult> future, TransferResult result) {
+		switch(result.getCode()){
+			case 0:
+				future.complete(result);
+				break;
+			case -6:
+				future.completeExceptionally(new TransferCancelledException(result));
+				break;
+			case -7:
+				future.completeExceptionally(new DeadlineExceededException(result));
+				break;
+			default:
+				future.completeExceptionally(new TransferFailedException(result));
+		}
+	}
+
+	/**
+	 * Stops accepting new transfers, the queued ones still run. See {@link #shutdownNow()} to stop them.
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Stops accepting new transfers and cancels the queued and running ones
+	 */
+	public void shutdownNow() {
+		executor.shutdown();
+		for(CompletableFuture<TransferResult> future : pending)
+			future.cancel(false);
+	}
+
+	/**
+	 * Waits for the queued transfers after {@link #close()}
+	 * @return false if the timeout elapsed before
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return executor.awaitTermination(timeout,unit);
+	}
+}
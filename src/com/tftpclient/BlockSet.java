@@ -0,0 +1,70 @@
+package com.tftpclient;
+
+import java.util.Arrays;
+
+/**
+ * The set of the blocks of a file received so far, when they can arrive in any order (see {@link TFTPClient#receiveFileMulticast}).
+ * <p>
+ * A bit per block, in an array of longs grown as needed : a 32 MB file takes 8 kB. Blocks are numbered from 1.
+ */
+public class BlockSet {
+	private long[] words = new long[16];
+	private long count;
+	//Every block before it was received
+	private long firstMissing = 1;
+
+	/**
+	 * @return false if the block was already in the set
+	 */
+	public boolean add(long block) {
+		if(block<1)
+			throw new IllegalArgumentException("Blocks are numbered from 1");
+		int word = (int) (block>>>6);
+		if(word>=words.length)
+			words = Arrays.copyOf(words,Math.max(word+1,words.length*2));
+		long bit = 1L<<block;
+		if((words[word] & bit)!=0)
+			return false;
+		words[word] |= bit;
+		count++;
+		if(block==firstMissing)
+			advance();
+		return true;
+	}
+
+	public boolean contains(long block) {
+		int word = (int) (block>>>6);
+		return block>=1 && word<words.length && (words[word] & 1L<<block)!=0;
+	}
+
+	/**
+	 * @return the first block not received yet
+	 */
+	public long getFirstMissing() {
+		return firstMissing;
+	}
+
+	/**
+	 * @return the number of blocks received
+	 */
+	public long size() {
+		return count;
+	}
+
+	/**
+	 * Moves firstMissing after the blocks received in a row, a word at a time
+	 */
+	private void advance() {
+		int word = (int) (firstMissing>>>6);
+		while(word<words.length){
+			//Bits of the word from firstMissing on, the first 0 is the next missing block
+			long missing = ~words[word]>>>(firstMissing & 63);
+			if(missing!=0){
+				firstMissing+=Long.numberOfTrailingZeros(missing);
+				return;
+			}
+			firstMissing = (long) (word+1)<<6;
+			word++;
+		}
+	}
+}
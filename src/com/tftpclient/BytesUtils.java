@@ -1,5 +1,7 @@
 package com.tftpclient;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 
 public class BytesUtils {
@@ -18,6 +20,36 @@ public class BytesUtils {
 	}
 
 
+	/**
+	 * Writes the 16 bits value (e.g. an opcode or a block number) at the given offset, big-endian
+	 */
+	public static void putShort(byte[] array, int offset, int value){
+		array[offset]=(byte) (value>>8);
+		array[offset+1]=(byte) value;
+	}
+
+	/**
+	 * Reads an unsigned 16 bits value (e.g. an opcode or a block number) at the given offset, big-endian
+	 */
+	public static int getShort(byte[] array, int offset){
+		return ((array[offset]&0xff)<<8) | (array[offset+1]&0xff);
+	}
+
+	/**
+	 * Reads from the stream until the given length is read or the end of the stream is reached
+	 * @return the number of bytes read, less than len only at the end of the stream
+	 */
+	public static int readFully(InputStream in, byte[] array, int offset, int len) throws IOException {
+		int total = 0;
+		while(total<len){
+			int n = in.read(array,offset+total,len-total);
+			if(n<0)
+				break;
+			total+=n;
+		}
+		return total;
+	}
+
 	public static byte[] removeTrailingZeros(byte[] fileData) {
 		int i=fileData.length-1;
 		while(i>=0 && fileData[i]==0)
@@ -0,0 +1,479 @@
+package com.tftpclient;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command line client, for scripts and batches of transfers. Unlike {@link GUITFTP}, it never loads Swing.
+ * <p>
+ * The result of each transfer is written as a JSON line (see {@link #toJson}), the messages of the transfers go to
+ * the standard error. The exit code is 0 if every transfer succeeded, 1 if some of them failed and 2 if the command line
+ * or the manifest is invalid.
+ */
+public class CLITFTP {
+	private static final String usage = String.join(System.lineSeparator(),
+			"Usage : CLITFTP [options] get <remote file> [local file]",
+			"        CLITFTP [options] put <local file> [remote file]",
+			"        CLITFTP [options] -f <manifest>",
+			"        CLITFTP [options] sync <local directory> [remote prefix]",
+			"",
+			"The manifest contains one transfer per line, written like the command line (get ... or put ...).",
+			"Fields are separated by tabs if the line contains a tab, by spaces otherwise. Lines starting with # are ignored.",
+			"Received files are written in the local/ directory unless a local file is given.",
+			"sync sends the files of the directory and its subdirectories that changed since the last sync, named by their relative path.",
+			"",
+			"Options :",
+			"  -s host[:port][,host[:port]...]  Server(s), localhost:69 by default. With several servers, each transfer",
+			"                                   goes to the least loaded one and fails over to the others.",
+			"  -m octet|netascii                Transfer mode, octet by default",
+			"  -M                               Receives the files with the multicast option (octet mode, single server) :",
+			"                                   clients getting the same file at the same time share the packets of the server",
+			"  -j n                             Number of transfers running at the same time, 4 by default",
+			"  -z                               Compresses the transfers with the servers supporting it (compress option)",
+			"  -w n                             Number of blocks the server may send before each ACK when a file is received",
+			"                                   (windowsize option), 1 by default",
+			"  -o file                          Writes the results to this file instead of the standard output",
+			"  -H file                          Records the transfers in this history file, see TransferHistory",
+			"  -i file                          Index of the files already sent by sync, <local directory>/"+DirectorySync.defaultIndexName+" by default",
+			"  -r rate                          Bandwidth limit of each transfer, in bytes/s (k and M suffixes accepted)",
+			"  -p rate                          Bandwidth limit of all the transfers with each server",
+			"  -R rate                          Bandwidth limit of all the transfers",
+			"  -v                               Prints every packet and block of the transfers",
+			"  -q                               Only prints the results and the summary");
+
+	private static final int defaultParallelism = 4;
+	//Result of a transfer stopped by an unexpected exception, see TFTPClient.getErrorMessage
+	private static final int unexpectedError = -9;
+
+	/**
+	 * A transfer of the command line or of the manifest
+	 */
+	private static class Job {
+		final boolean get;
+		final String local;
+		final String remote;
+
+		Job(boolean get, String local, String remote) {
+			this.get=get;
+			this.local=local;
+			this.remote=remote;
+		}
+	}
+
+	public static void main(String[] args) {
+		System.exit(run(args));
+	}
+
+	/**
+	 * Runs the command line
+	 * @return the exit code
+	 */
+	static int run(String[] args) {
+		List<InetAddress> ips = new ArrayList<>();
+		List<Integer> ports = new ArrayList<>();
+		TransferMode mode = TFTPClient.defaultMode;
+		int parallelism = defaultParallelism;
+		String manifest = null;
+		String output = null;
+		String index = null;
+		String historyFile = null;
+		boolean verbose = false;
+		boolean quiet = false;
+		boolean multicast = false;
+		long transferRate = 0;
+		long serverRate = 0;
+		List<String> command = new ArrayList<>();
+
+		try {
+			for(int i=0;i<args.length;i++){
+				switch (args[i]) {
+					case "-s":
+						for(String server : value(args,++i).split(","))
+							parseServer(server,ips,ports);
+						break;
+					case "-m":
+						mode = TransferMode.valueOf(value(args,++i).toUpperCase(Locale.ROOT));
+						break;
+					case "-j":
+						parallelism = Integer.parseInt(value(args,++i));
+						if(parallelism<1)
+							throw new IllegalArgumentException("The number of parallel transfers must be greater than 0");
+						break;
+					case "-z":
+						TFTPClient.setCompression(true);
+						break;
+					case "-w":
+						TFTPClient.setWindowSize(Integer.parseInt(value(args,++i)));
+						break;
+					case "-f":
+						manifest = value(args,++i);
+						break;
+					case "-o":
+						output = value(args,++i);
+						break;
+					case "-i":
+						index = value(args,++i);
+						break;
+					case "-H":
+						historyFile = value(args,++i);
+						break;
+					case "-r":
+						transferRate = parseRate(value(args,++i));
+						break;
+					case "-p":
+						serverRate = parseRate(value(args,++i));
+						break;
+					case "-R":
+						RateLimiter.setGlobalRate(parseRate(value(args,++i)));
+						break;
+					case "-v":
+						verbose = true;
+						break;
+					case "-M":
+						multicast = true;
+						break;
+					case "-q":
+						quiet = true;
+						break;
+					case "-h":
+					case "--help":
+						System.out.println(usage);
+						return 0;
+					default:
+						command.add(args[i]);
+				}
+			}
+		} catch (IllegalArgumentException | UnknownHostException e) {
+			System.err.println(e.getMessage());
+			System.err.println(usage);
+			return 2;
+		}
+
+		List<Job> jobs = new ArrayList<>();
+		try {
+			if(!command.isEmpty() && command.get(0).equals("sync")){
+				if(manifest!=null || command.size()<2 || command.size()>3)
+					throw new IllegalArgumentException("A synchronization is written sync <local directory> [remote prefix]");
+				if(!new File(command.get(1)).isDirectory())
+					throw new IllegalArgumentException(command.get(1)+" is not a directory");
+			}
+			else if(manifest!=null){
+				if(!command.isEmpty())
+					throw new IllegalArgumentException("A transfer can not be given with a manifest");
+				int lineN = 0;
+				for(String line : Files.readAllLines(Paths.get(manifest),StandardCharsets.UTF_8)){
+					lineN++;
+					line = line.strip();
+					if(line.isEmpty() || line.startsWith("#"))
+						continue;
+					try {
+						jobs.add(parseJob(Arrays.asList(line.split(line.indexOf('\t')>=0 ? "\t+" : " +"))));
+					} catch (IllegalArgumentException e) {
+						throw new IllegalArgumentException(manifest+":"+lineN+" : "+e.getMessage());
+					}
+				}
+			}
+			else
+				jobs.add(parseJob(command));
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(usage);
+			return 2;
+		} catch (IOException e) {
+			System.err.println("Could not read the manifest "+manifest+" : "+e.getMessage());
+			return 2;
+		}
+
+		if(ips.isEmpty()){
+			ips.add(TFTPClient.defaultIP);
+			ports.add(TFTPClient.defaultServerPort);
+		}
+		if(serverRate>0)
+			for(InetAddress ip : ips)
+				RateLimiter.setServerRate(ip,serverRate);
+
+		TransferHistory history = null;
+		if(historyFile!=null){
+			try {
+				history = new TransferHistory(new File(historyFile));
+			} catch (IOException e) {
+				System.err.println("Could not open the history "+historyFile+" : "+e.getMessage());
+				return 2;
+			}
+		}
+		TFTPClient.setHistory(history);
+		try {
+			return run(command,jobs,ips,ports,mode,multicast,parallelism,transferRate,index,output,verbose,quiet);
+		} finally {
+			TFTPClient.setHistory(null);
+			if(history!=null){
+				try {
+					history.close();
+				} catch (IOException e) {
+					System.err.println("Could not close the history "+historyFile+" : "+e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs the parsed command line
+	 * @return the exit code
+	 */
+	private static int run(List<String> command, List<Job> jobs, List<InetAddress> ips, List<Integer> ports, TransferMode mode, boolean multicast,
+						   int parallelism, long transferRate, String index, String output, boolean verbose, boolean quiet) {
+		PrintStream results;
+		try {
+			results = output==null ? System.out : new PrintStream(new BufferedOutputStream(new FileOutputStream(output)),false,"UTF-8");
+		} catch (IOException e) {
+			System.err.println("Could not open "+output+" : "+e.getMessage());
+			return 2;
+		}
+		//The standard output is kept for the results, the messages of the transfers go to the standard error
+		System.setOut(quiet ? new PrintStream(OutputStream.nullOutputStream()) : System.err);
+		TFTPClient.setVerbose(verbose);
+
+		try {
+			if(!command.isEmpty() && command.get(0).equals("sync")){
+				File indexFile = index==null ? null : new File(index);
+				return sync(new File(command.get(1)),command.size()==3 ? command.get(2) : "",indexFile,ips,ports,mode,parallelism,transferRate,results);
+			}
+			if(multicast && (ips.size()>1 || mode!=TransferMode.OCTET)){
+				System.err.println("Multicast only works in octet mode with a single server");
+				return 2;
+			}
+			int failures = execute(jobs,ips,ports,mode,multicast,parallelism,transferRate,results);
+			return failures==0 ? 0 : 1;
+		} finally {
+			results.flush();
+			if(output!=null)
+				results.close();
+		}
+	}
+
+	/**
+	 * Runs the transfers, writes their results and prints a summary of the errors on the standard error
+	 * @return the number of failed transfers
+	 */
+	private static int execute(List<Job> jobs, List<InetAddress> ips, List<Integer> ports, TransferMode mode, boolean multicast, int parallelism, long transferRate, PrintStream results) {
+		ServerGroup group = null;
+		if(ips.size()>1){
+			group = new ServerGroup(ServerGroup.Selection.LEAST_LOADED);
+			for(int i=0;i<ips.size();i++)
+				group.addServer(ips.get(i),ports.get(i));
+		}
+		new File("local").mkdirs();
+
+		//Number of failed transfers for each error code
+		Map<Integer,Integer> errors = new TreeMap<>();
+		int[] succeeded = {0};
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,Math.min(parallelism,jobs.size())));
+		//The workers go on with the next transfer while the last ACK of a received file may still be sent again
+		ExecutorService dallier = Executors.newCachedThreadPool();
+		ServerGroup servers = group;
+		for(Job job : jobs){
+			executor.execute(() -> {
+				TransferMonitor monitor = new TransferMonitor();
+				monitor.setRateLimit(transferRate);
+				String local = job.local;
+				int result;
+				try {
+					if(job.get && local==null)
+						local = TFTPClient.newLocalFile(job.remote).getPath();
+					result = transfer(job.get,local,job.remote,servers,ips.get(0),ports.get(0),mode,multicast,monitor,dallier);
+				} catch (RuntimeException e) {
+					System.err.println("Unexpected error while transferring "+job.remote+" : "+e);
+					result = unexpectedError;
+					if(!monitor.isDone())
+						monitor.finish(result);
+					if(job.get && local!=null)
+						new File(local).delete();
+				}
+				String line = toJson(job.get,new TransferResult(local,job.remote,monitor));
+				synchronized (errors) {
+					results.println(line);
+					if(result!=0)
+						errors.merge(result,1,Integer::sum);
+					else
+						succeeded[0]++;
+				}
+			});
+		}
+		executor.shutdown();
+		try {
+			while(!executor.awaitTermination(1,TimeUnit.DAYS));
+			dallier.shutdown();
+			while(!dallier.awaitTermination(1,TimeUnit.DAYS));
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			dallier.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+
+		int failures = 0;
+		synchronized (errors) {
+			for(int count : errors.values())
+				failures+=count;
+			System.err.println(jobs.size()+" transfer(s), "+succeeded[0]+" succeeded, "+failures+" failed.");
+		}
+		for(Map.Entry<Integer,Integer> error : errors.entrySet())
+			System.err.println("  "+error.getValue()+" x error "+error.getKey()+" : "+TFTPClient.getErrorMessage(error.getKey()));
+		return failures;
+	}
+
+	/**
+	 * Synchronizes a directory (see {@link DirectorySync}), writes the result of each file sent or that failed and prints a summary
+	 * @return the exit code
+	 */
+	private static int sync(File dir, String remotePrefix, File indexFile, List<InetAddress> ips, List<Integer> ports, TransferMode mode, int parallelism, long transferRate, PrintStream results) {
+		AsyncTFTPClient client;
+		if(ips.size()>1){
+			ServerGroup group = new ServerGroup(ServerGroup.Selection.LEAST_LOADED);
+			for(int i=0;i<ips.size();i++)
+				group.addServer(ips.get(i),ports.get(i));
+			client = new AsyncTFTPClient(group,parallelism);
+		}
+		else
+			client = new AsyncTFTPClient(ips.get(0),ports.get(0),parallelism);
+		client.setMode(mode);
+		client.setRateLimit(transferRate);
+		try (client) {
+			DirectorySync.Report report = new DirectorySync(client,dir,remotePrefix,indexFile).sync();
+			for(TransferResult result : report.getResults().values())
+				results.println(toJson(false,result));
+			System.err.println(report);
+			return report.getFailures().isEmpty() ? 0 : 1;
+		} catch (IOException e) {
+			System.err.println("Could not synchronize "+dir+" : "+e.getMessage());
+			return 2;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return 1;
+		}
+	}
+
+	private static int transfer(boolean get, String local, String remote, ServerGroup group, InetAddress ip, int port, TransferMode mode, boolean multicast,
+								TransferMonitor monitor, Executor dallier) {
+		if(get){
+			File localFile = new File(local);
+			File parent = localFile.getAbsoluteFile().getParentFile();
+			if(parent!=null)
+				parent.mkdirs();
+			if(group!=null)
+				return group.receiveFile(remote,new File[]{localFile},mode,monitor,dallier);
+			if(multicast)
+				return TFTPClient.receiveFileMulticast(ip,port,remote,localFile,monitor);
+			return TFTPClient.receiveFile(ip,port,remote,localFile,mode,monitor,dallier);
+		}
+		if(group!=null)
+			return group.sendFile(local,remote,mode,monitor);
+		return TFTPClient.sendFile(ip,port,local,remote,mode,monitor);
+	}
+
+	/**
+	 * Result of a transfer as a JSON object on a single line, e.g.
+	 * {"op":"get","remote":"a.txt","local":"local/a.txt","server":"127.0.0.1:69","code":0,"message":"...","bytes":20,"blocks":1,"duration_ms":3.2,"retransmits":0,"rtt_ms":0.4}
+	 */
+	private static String toJson(boolean get, TransferResult result) {
+		StringBuilder sb = new StringBuilder(256);
+		sb.append("{\"op\":\"").append(get ? "get" : "put").append('"');
+		sb.append(",\"remote\":");
+		appendString(sb,result.getRemoteFile());
+		sb.append(",\"local\":");
+		appendString(sb,result.getLocalFile());
+		sb.append(",\"server\":");
+		appendString(sb,result.getServer()==null ? null : result.getServer().getAddress().getHostAddress()+":"+result.getServer().getPort());
+		sb.append(",\"code\":").append(result.getCode());
+		sb.append(",\"message\":");
+		appendString(sb,TFTPClient.getErrorMessage(result.getCode()));
+		sb.append(",\"bytes\":").append(result.getBytes());
+		sb.append(",\"blocks\":").append(result.getBlocks());
+		sb.append(",\"duration_ms\":").append(String.format(Locale.ROOT,"%.3f",result.getDuration()));
+		sb.append(",\"retransmits\":").append(result.getRetransmits());
+		sb.append(",\"rtt_ms\":").append(String.format(Locale.ROOT,"%.3f",result.getSmoothedRtt()));
+		return sb.append('}').toString();
+	}
+
+	private static void appendString(StringBuilder sb, String value) {
+		if(value==null){
+			sb.append("null");
+			return;
+		}
+		sb.append('"');
+		for(int i=0;i<value.length();i++){
+			char c = value.charAt(i);
+			switch (c) {
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if(c<0x20)
+						sb.append(String.format("\\u%04x",(int) c));
+					else
+						sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+
+	private static Job parseJob(List<String> fields) {
+		if(fields.size()<2 || fields.size()>3)
+			throw new IllegalArgumentException("A transfer is written get <remote file> [local file] or put <local file> [remote file]");
+		String second = fields.size()==3 ? fields.get(2) : null;
+		switch (fields.get(0)) {
+			case "get":
+				return new Job(true,second,fields.get(1));
+			case "put":
+				return new Job(false,fields.get(1),second!=null ? second : new File(fields.get(1)).getName());
+			default:
+				throw new IllegalArgumentException("Unknown command : "+fields.get(0));
+		}
+	}
+
+	private static void parseServer(String server, List<InetAddress> ips, List<Integer> ports) throws UnknownHostException {
+		int colon = server.lastIndexOf(':');
+		//An IPv6 address without port contains several colons
+		if(colon>=0 && server.indexOf(':')==colon){
+			int port = Integer.parseInt(server.substring(colon+1));
+			if(port<1 || port>65535)
+				throw new IllegalArgumentException("Invalid port "+port+" for the server "+server);
+			ips.add(InetAddress.getByName(server.substring(0,colon)));
+			ports.add(port);
+		}
+		else{
+			ips.add(InetAddress.getByName(server));
+			ports.add(TFTPClient.defaultServerPort);
+		}
+	}
+
+	/**
+	 * Parses a rate in bytes per second, with an optional k (1000) or M (1000000) suffix
+	 */
+	private static long parseRate(String rate) {
+		long multiplier = 1;
+		if(rate.endsWith("k") || rate.endsWith("K"))
+			multiplier = 1000;
+		else if(rate.endsWith("M"))
+			multiplier = 1000_000;
+		if(multiplier>1)
+			rate = rate.substring(0,rate.length()-1);
+		return (long) (Double.parseDouble(rate)*multiplier);
+	}
+
+	private static String value(String[] args, int i) {
+		if(i>=args.length)
+			throw new IllegalArgumentException("Missing value for "+args[i-1]);
+		return args[i];
+	}
+}
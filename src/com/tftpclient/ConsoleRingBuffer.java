@@ -0,0 +1,97 @@
+package com.tftpclient;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A bounded lock-free queue of console lines, written by any number of threads and read by a single one (the EDT, see {@link MessageConsole}).
+ * <p>
+ * Writers never wait : when the queue is full, the line is dropped and only counted so the reader can display a summary instead.
+ * A writer claims a slot by moving the tail forward then publishes its line in it, the reader takes the published lines in order
+ * and frees their slots before moving the head forward.
+ */
+public class ConsoleRingBuffer {
+	private final AtomicReferenceArray<String> slots;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong();
+	//Only written by the reader
+	private volatile long head;
+	private final LongAdder dropped = new LongAdder();
+
+	/**
+	 * @param capacity Maximum number of lines waiting to be read, rounded up to a power of 2
+	 */
+	public ConsoleRingBuffer(int capacity) {
+		if(capacity<1)
+			throw new IllegalArgumentException("The capacity must be greater than 0");
+		int size = Integer.highestOneBit(capacity);
+		if(size<capacity)
+			size<<=1;
+		slots = new AtomicReferenceArray<>(size);
+		mask = size-1;
+	}
+
+	/**
+	 * Adds a line to the queue, may be called by any thread
+	 * @return false if the queue was full and the line was dropped
+	 */
+	public boolean offer(String line) {
+		long t;
+		do {
+			t = tail.get();
+			if(t-head>mask){
+				dropped.increment();
+				return false;
+			}
+		}while(!tail.compareAndSet(t,t+1));
+		slots.set((int) t & mask,line);
+		return true;
+	}
+
+	/**
+	 * Takes the lines available, oldest first. Must always be called by the same thread.
+	 * @param maxLines Maximum number of lines given to the consumer : if more lines are waiting, only the newest ones are kept
+	 *                 and the other ones are counted as dropped.
+	 * @return the number of lines given to the consumer
+	 */
+	public int drain(int maxLines, Consumer<String> consumer) {
+		long h = head;
+		long t = tail.get();
+		long skip = Math.max(0,(t-h)-maxLines);
+		int count = 0;
+		for(;h<t;h++){
+			int i = (int) h & mask;
+			String line = slots.get(i);
+			//The slot was claimed but its line is not published yet, it will be taken next time
+			if(line==null)
+				break;
+			slots.lazySet(i,null);
+			if(skip>0){
+				skip--;
+				dropped.increment();
+			}
+			else{
+				consumer.accept(line);
+				count++;
+			}
+		}
+		head=h;
+		return count;
+	}
+
+	/**
+	 * @return the number of lines dropped since the last call
+	 */
+	public long takeDropped() {
+		return dropped.sumThenReset();
+	}
+
+	/**
+	 * @return an estimate of the number of lines waiting to be read
+	 */
+	public int size() {
+		return (int) Math.max(0,tail.get()-head);
+	}
+}
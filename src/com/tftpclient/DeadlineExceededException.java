@@ -0,0 +1,10 @@
+package com.tftpclient;
+
+/**
+ * The transfer was not over before its deadline, it may not even have started
+ */
+public class DeadlineExceededException extends TransferFailedException {
+	public DeadlineExceededException(TransferResult result) {
+		super(result);
+	}
+}
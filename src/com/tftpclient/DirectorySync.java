@@ -0,0 +1,300 @@
+package com.tftpclient;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Mirrors a local directory tree to a server, sending only the files that changed since the last synchronization.
+ * <p>
+ * The size, modification time and SHA-256 hash of each file successfully sent are kept in an index file. A file whose
+ * size and modification time did not change is skipped without being read; otherwise it is hashed and only sent if
+ * its content changed. Files are named on the server by their path relative to the root, with / as separator.
+ * <p>
+ * The index describes what one server received : use one index per server (or {@link ServerGroup}).
+ * Files deleted locally are removed from the index but not from the server, TFTP can not delete a file.
+ */
+public class DirectorySync {
+	/**
+	 * Name of the index in the synchronized directory when no other file is given, it is never sent
+	 */
+	public static final String defaultIndexName = ".tftpsync";
+
+	private final AsyncTFTPClient client;
+	private final Path root;
+	private final Path indexFile;
+	private final String remotePrefix;
+
+	/**
+	 * State of a file when it was last sent
+	 */
+	private static class Entry {
+		final long size;
+		final long modified;
+		final String hash;
+
+		Entry(long size, long modified, String hash) {
+			this.size=size;
+			this.modified=modified;
+			this.hash=hash;
+		}
+	}
+
+	/**
+	 * A file being sent, with its entry to add to the index once it is sent
+	 */
+	private static class Transfer {
+		final Entry entry;
+		final CompletableFuture<TransferResult> future;
+
+		Transfer(Entry entry, CompletableFuture<TransferResult> future) {
+			this.entry=entry;
+			this.future=future;
+		}
+	}
+
+	/**
+	 * @param client       Client sending the files, its parallelism is the number of files sent at the same time
+	 * @param root         Directory to synchronize
+	 * @param remotePrefix Prefix of the remote names (e.g. "config/"), may be empty
+	 * @param indexFile    Index of the files already sent, null for {@link #defaultIndexName} in the root
+	 */
+	public DirectorySync(AsyncTFTPClient client, File root, String remotePrefix, File indexFile) {
+		this.client=client;
+		this.root=root.toPath().toAbsolutePath().normalize();
+		this.remotePrefix=remotePrefix==null ? "" : remotePrefix;
+		this.indexFile=indexFile!=null ? indexFile.toPath().toAbsolutePath().normalize() : this.root.resolve(defaultIndexName);
+	}
+
+	public DirectorySync(AsyncTFTPClient client, File root) {
+		this(client,root,"",null);
+	}
+
+	/**
+	 * Outcome of a synchronization
+	 */
+	public static class Report {
+		private int sent;
+		private int unchanged;
+		private long bytes;
+		private final Map<String,TransferFailedException> failures = new TreeMap<>();
+		private final Map<String,TransferResult> results = new LinkedHashMap<>();
+
+		/**
+		 * @return the number of files sent
+		 */
+		public int getSent() {
+			return sent;
+		}
+
+		/**
+		 * @return the number of files skipped because they did not change
+		 */
+		public int getUnchanged() {
+			return unchanged;
+		}
+
+		/**
+		 * @return the number of bytes sent
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * @return the error of each file that could not be sent, by relative path. These files are sent again by the next synchronization.
+		 */
+		public Map<String,TransferFailedException> getFailures() {
+			return Collections.unmodifiableMap(failures);
+		}
+
+		/**
+		 * @return the result of each file sent or that could not be sent, by relative path in the order of the transfers
+		 */
+		public Map<String,TransferResult> getResults() {
+			return Collections.unmodifiableMap(results);
+		}
+
+		@Override
+		public String toString() {
+			return sent+" file(s) sent ("+bytes+" bytes), "+unchanged+" unchanged, "+failures.size()+" failed.";
+		}
+	}
+
+	/**
+	 * Sends the new and changed files and waits for the end of the transfers. The index is saved even if some transfers failed.
+	 * @throws IOException if the directory could not be walked or the index could not be read or written
+	 */
+	public Report sync() throws IOException, InterruptedException {
+		Map<String,Entry> index = readIndex();
+		//Index of the files still present, completed by the transfers
+		Map<String,Entry> newIndex = new TreeMap<>();
+		Map<String,Transfer> transfers = new LinkedHashMap<>();
+		Report report = new Report();
+		MessageDigest digest = newDigest();
+		byte[] buffer = new byte[64*1024];
+
+		Files.walkFileTree(root,new SimpleFileVisitor<>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if(!attrs.isRegularFile() || isIndex(file))
+					return FileVisitResult.CONTINUE;
+				String name = relativeName(file);
+				long size = attrs.size();
+				long modified = attrs.lastModifiedTime().toMillis();
+				Entry old = index.get(name);
+				if(old!=null && old.size==size && old.modified==modified){
+					newIndex.put(name,old);
+					report.unchanged++;
+					return FileVisitResult.CONTINUE;
+				}
+				String hash;
+				try {
+					hash = hash(file,digest,buffer);
+				} catch (IOException e) {
+					//Like in visitFileFailed, the file is retried next time
+					System.out.println("Could not read "+file+" : "+e.getMessage());
+					return FileVisitResult.CONTINUE;
+				}
+				Entry entry = new Entry(size,modified,hash);
+				if(old!=null && old.size==size && old.hash.equals(hash)){
+					//Only touched, the new time avoids hashing it again next time
+					newIndex.put(name,entry);
+					report.unchanged++;
+					return FileVisitResult.CONTINUE;
+				}
+				transfers.put(name,new Transfer(entry,client.sendAsync(file.toString(),remotePrefix+name)));
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+				//A file that disappeared or can not be read is not fatal, it is retried next time
+				System.out.println("Could not read "+file+" : "+e.getMessage());
+				return FileVisitResult.CONTINUE;
+			}
+		});
+
+		try {
+			for(Map.Entry<String,Transfer> transfer : transfers.entrySet()){
+				try {
+					TransferResult result = transfer.getValue().future.get();
+					newIndex.put(transfer.getKey(),transfer.getValue().entry);
+					report.results.put(transfer.getKey(),result);
+					report.sent++;
+					report.bytes+=result.getBytes();
+				} catch (ExecutionException e) {
+					if(e.getCause() instanceof TransferFailedException){
+						TransferFailedException failure = (TransferFailedException) e.getCause();
+						report.failures.put(transfer.getKey(),failure);
+						report.results.put(transfer.getKey(),failure.getResult());
+					}
+					else
+						throw new IOException(e.getCause());
+				}
+			}
+		} finally {
+			//The completed transfers are recorded even if the synchronization is interrupted
+			for(Map.Entry<String,Transfer> transfer : transfers.entrySet()){
+				CompletableFuture<TransferResult> future = transfer.getValue().future;
+				if(future.isDone() && !future.isCompletedExceptionally())
+					newIndex.put(transfer.getKey(),transfer.getValue().entry);
+			}
+			writeIndex(newIndex);
+		}
+		return report;
+	}
+
+	/**
+	 * @return true for the index and the temporary files written while saving it
+	 */
+	private boolean isIndex(Path file) {
+		if(file.equals(indexFile))
+			return true;
+		String name = file.getFileName().toString();
+		return file.getParent().equals(indexFile.getParent()) && name.startsWith(indexFile.getFileName().toString()) && name.endsWith(".tmp");
+	}
+
+	private String relativeName(Path file) {
+		Path relative = root.relativize(file);
+		StringBuilder sb = new StringBuilder();
+		for(Path part : relative){
+			if(sb.length()>0)
+				sb.append('/');
+			sb.append(part);
+		}
+		return sb.toString();
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			//Every Java platform supports SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hash(Path file, MessageDigest digest, byte[] buffer) throws IOException {
+		digest.reset();
+		try (InputStream in = Files.newInputStream(file)) {
+			int n;
+			while((n=in.read(buffer))>0)
+				digest.update(buffer,0,n);
+		}
+		StringBuilder sb = new StringBuilder(64);
+		for(byte b : digest.digest())
+			sb.append(Character.forDigit((b>>4) & 0xF,16)).append(Character.forDigit(b & 0xF,16));
+		return sb.toString();
+	}
+
+	/**
+	 * The index is a text file with a line per file : size, modification time (ms), hash and relative path separated by tabs
+	 */
+	private Map<String,Entry> readIndex() throws IOException {
+		Map<String,Entry> index = new HashMap<>();
+		if(!Files.exists(indexFile))
+			return index;
+		try (BufferedReader reader = Files.newBufferedReader(indexFile,StandardCharsets.UTF_8)) {
+			String line;
+			while((line=reader.readLine())!=null){
+				String[] fields = line.split("\t",4);
+				if(fields.length<4)
+					continue;
+				try {
+					index.put(fields[3],new Entry(Long.parseLong(fields[0]),Long.parseLong(fields[1]),fields[2]));
+				} catch (NumberFormatException e) {
+					//A damaged line only means the file is hashed again
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Writes the index to a temporary file first, so an interrupted write never loses the previous index
+	 */
+	private void writeIndex(Map<String,Entry> index) throws IOException {
+		Path parent = indexFile.getParent();
+		Files.createDirectories(parent);
+		Path temp = Files.createTempFile(parent,indexFile.getFileName().toString(),".tmp");
+		try {
+			try (BufferedWriter writer = Files.newBufferedWriter(temp,StandardCharsets.UTF_8)) {
+				for(Map.Entry<String,Entry> e : index.entrySet()){
+					Entry entry = e.getValue();
+					writer.write(entry.size+"\t"+entry.modified+"\t"+entry.hash+"\t"+e.getKey());
+					writer.newLine();
+				}
+			}
+			Files.move(temp,indexFile,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+}
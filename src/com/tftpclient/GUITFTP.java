@@ -1,18 +1,34 @@
 package com.tftpclient;
 
-import org.w3c.dom.ls.LSOutput;
-
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class GUITFTP extends JPanel implements ActionListener {
-	JButton send,receive,selectFile;
+	//Number of transfers running at the same time, the other ones wait in the queue
+	private static final int workerCount = 2;
+	//Refresh period of the progress bars, in ms
+	private static final int refreshDelay = 100;
+
+	JButton send,receive,selectFile,clearDone;
 	JFileChooser fc;
 	File currentFile;
 	JTextArea log,currentFileName,localPath,toBeReceived;
+	JPanel transfersPanel;
+
+	//The transfers run on these threads so the EDT is never blocked by the network
+	private final ExecutorService workers = Executors.newFixedThreadPool(workerCount, r -> {
+		Thread t = new Thread(r,"TFTP transfer");
+		t.setDaemon(true);
+		return t;
+	});
+	private final List<TransferView> transfers = new ArrayList<>();
 
 	public GUITFTP(){
 		super(new BorderLayout());
@@ -53,12 +69,30 @@ public class GUITFTP extends JPanel implements ActionListener {
 
 		fc = new JFileChooser(System.getProperty("user.dir"));
 		add(BorderLayout.NORTH,sendPanel);
-		add(BorderLayout.CENTER,receivePanel);
+
+		//Transfer queue
+		JPanel centerPanel = new JPanel(new BorderLayout());
+		centerPanel.add(BorderLayout.NORTH,receivePanel);
+		transfersPanel = new JPanel();
+		transfersPanel.setLayout(new BoxLayout(transfersPanel,BoxLayout.Y_AXIS));
+		JScrollPane transfersScroll = new JScrollPane(transfersPanel);
+		transfersScroll.setPreferredSize(new Dimension(900,110));
+		centerPanel.add(BorderLayout.CENTER,transfersScroll);
+		clearDone = new JButton("Clear finished transfers");
+		clearDone.addActionListener(this);
+		JPanel clearPanel = new JPanel();
+		clearPanel.add(clearDone);
+		centerPanel.add(BorderLayout.SOUTH,clearPanel);
+		add(BorderLayout.CENTER,centerPanel);
+		new Timer(refreshDelay, e -> {
+			for(TransferView view : transfers)
+				view.refresh();
+		}).start();
 
 
 		//Panel with logs
 		JPanel logPanel = new JPanel();
-		log = new JTextArea(30,80);
+		log = new JTextArea(20,80);
 		log.setEditable(false);
 		Font consola = Font.getFont("Consola");
 		if(consola!=null)
@@ -86,10 +120,8 @@ public class GUITFTP extends JPanel implements ActionListener {
 				System.out.println("Please select a file to be sent first.");
 			}
 			else{
-				int err = TFTPClient.sendFile(currentFile.getPath());
-				if (err != 0) {
-					System.out.println("Error code : " + err);
-				}
+				String path = currentFile.getPath();
+				enqueue("Send "+currentFile.getName(), monitor -> TFTPClient.sendFile(TFTPClient.defaultIP,TFTPClient.defaultServerPort,path,TFTPClient.defaultMode,monitor));
 			}
 		}
 		else if(e.getSource() == receive){
@@ -97,12 +129,44 @@ public class GUITFTP extends JPanel implements ActionListener {
 				System.out.println("Please enter a file name first.");
 			}
 			else{
-				int err = TFTPClient.receiveFile(toBeReceived.getText());
-				if (err != 0) {
-					System.out.println("Error code : " + err);
-				}
+				String fileName = toBeReceived.getText();
+				enqueue("Receive "+fileName, monitor -> TFTPClient.receiveFile(TFTPClient.defaultIP,TFTPClient.defaultServerPort,fileName,TFTPClient.newLocalFile(fileName),TFTPClient.defaultMode,monitor));
 			}
 		}
+		else if(e.getSource() == clearDone){
+			transfers.removeIf(view -> {
+				if(view.isDone())
+					transfersPanel.remove(view);
+				return view.isDone();
+			});
+			transfersPanel.revalidate();
+			transfersPanel.repaint();
+		}
+	}
+
+	/**
+	 * A transfer reporting to the given monitor, see {@link TFTPClient#sendFile(java.net.InetAddress, int, String, TransferMode, TransferMonitor)}
+	 */
+	private interface Transfer {
+		int run(TransferMonitor monitor);
+	}
+
+	/**
+	 * Adds a transfer to the queue, it is run as soon as a worker is available
+	 */
+	private void enqueue(String description, Transfer transfer) {
+		TransferView view = new TransferView(description);
+		transfers.add(view);
+		transfersPanel.add(view);
+		transfersPanel.revalidate();
+		workers.execute(() -> {
+			if(!view.start())
+				return;
+			int err = transfer.run(view.getMonitor());
+			if (err != 0) {
+				System.out.println("Error code : " + err);
+			}
+		});
 	}
 
 	public static void main(String[] args) {
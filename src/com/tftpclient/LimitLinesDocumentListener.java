@@ -90,18 +90,22 @@ public class LimitLinesDocumentListener implements DocumentListener
 		//  The root Element of the Document will tell us the total number
 		//  of line in the Document.
 
+		//  A single insertion can add many lines, the excess lines are all
+		//  removed at once
+
 		Document document = e.getDocument();
 		Element root = document.getDefaultRootElement();
+		int excess = root.getElementCount() - maximumLines;
 
-		while (root.getElementCount() > maximumLines)
+		if (excess > 0)
 		{
 			if (isRemoveFromStart)
 			{
-				removeFromStart(document, root);
+				removeFromStart(document, root, excess);
 			}
 			else
 			{
-				removeFromEnd(document, root);
+				removeFromEnd(document, root, excess);
 			}
 		}
 	}
@@ -109,9 +113,9 @@ public class LimitLinesDocumentListener implements DocumentListener
 	/*
 	 *  Remove lines from the start of the Document
 	 */
-	private void removeFromStart(Document document, Element root)
+	private void removeFromStart(Document document, Element root, int lines)
 	{
-		Element line = root.getElement(0);
+		Element line = root.getElement(lines - 1);
 		int end = line.getEndOffset();
 
 		try
@@ -127,14 +131,15 @@ public class LimitLinesDocumentListener implements DocumentListener
 	/*
 	 *  Remove lines from the end of the Document
 	 */
-	private void removeFromEnd(Document document, Element root)
+	private void removeFromEnd(Document document, Element root, int lines)
 	{
 		//  We use start minus 1 to make sure we remove the newline
 		//  character of the previous line
 
-		Element line = root.getElement(root.getElementCount() - 1);
-		int start = line.getStartOffset();
-		int end = line.getEndOffset();
+		Element first = root.getElement(root.getElementCount() - lines);
+		Element last = root.getElement(root.getElementCount() - 1);
+		int start = first.getStartOffset();
+		int end = last.getEndOffset();
 
 		try
 		{
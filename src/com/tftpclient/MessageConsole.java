@@ -26,6 +26,20 @@ public class MessageConsole
 	private boolean isAppend;
 	private DocumentListener limitLinesListener;
 
+	/*
+	 *  Text written by the other threads is queued in a ConsoleRingBuffer and
+	 *  only added to the Document by this timer, at a fixed frame rate and in
+	 *  one insertion per output source, so a transfer writing thousands of
+	 *  lines per second never waits for the EDT. When the queue is full the
+	 *  lines are dropped and a summary line is displayed instead.
+	 */
+	private static final int FRAME_RATE = 30;
+	private static final int QUEUE_CAPACITY = 16384;
+	private static final int MAX_FRAME_LINES = 500;
+	private final java.util.List<ConsoleOutputStream> streams = new java.util.concurrent.CopyOnWriteArrayList<>();
+	private Timer flushTimer;
+	private volatile int messageLines = Integer.MAX_VALUE;
+
 	public MessageConsole(JTextComponent textComponent)
 	{
 		this(textComponent, true);
@@ -65,6 +79,7 @@ public class MessageConsole
 	{
 		ConsoleOutputStream cos = new ConsoleOutputStream(textColor, printStream);
 		System.setOut( new PrintStream(cos, true) );
+		startFlushTimer();
 	}
 
 	/*
@@ -86,6 +101,7 @@ public class MessageConsole
 	{
 		ConsoleOutputStream cos = new ConsoleOutputStream(textColor, printStream);
 		System.setErr( new PrintStream(cos, true) );
+		startFlushTimer();
 	}
 
 	/*
@@ -102,6 +118,29 @@ public class MessageConsole
 
 		limitLinesListener = new LimitLinesDocumentListener(lines, isAppend);
 		document.addDocumentListener( limitLinesListener );
+		messageLines = lines;
+	}
+
+	/*
+	 *  Start the timer adding the pending text of every output source to the
+	 *  Document
+	 */
+	private synchronized void startFlushTimer()
+	{
+		if (flushTimer != null) return;
+
+		flushTimer = new Timer(1000 / FRAME_RATE, e -> flushStreams());
+		flushTimer.start();
+	}
+
+	/*
+	 *  Add the text written since the last call to the Document. Must be
+	 *  called on the EDT.
+	 */
+	private void flushStreams()
+	{
+		for (ConsoleOutputStream cos : streams)
+			cos.flushPending();
 	}
 
 	/*
@@ -118,6 +157,10 @@ public class MessageConsole
 		private StringBuffer buffer = new StringBuffer(80);
 		private boolean isFirstLine;
 
+		//  Lines waiting to be added to the Document by the flush timer
+		private final ConsoleRingBuffer pending = new ConsoleRingBuffer(QUEUE_CAPACITY);
+		private final StringBuilder frame = new StringBuilder();
+
 		/*
 		 *  Specify the option text color and PrintStream
 		 */
@@ -133,6 +176,8 @@ public class MessageConsole
 
 			if (isAppend)
 				isFirstLine = true;
+
+			streams.add(this);
 		}
 
 		/*
@@ -203,44 +248,82 @@ public class MessageConsole
 
 		/*
 		 *  The message and the newLine have been added to the buffer in the
-		 *  appropriate order so we can now update the Document and send the
-		 *  text to the optional PrintStream.
+		 *  appropriate order so we can now queue the text for the Document and
+		 *  send it to the optional PrintStream.
 		 */
 		private void clearBuffer()
 		{
+			String line = buffer.toString();
+			pending.offer(line);
+
+			if (printStream != null)
+			{
+				printStream.print(line);
+			}
+
+			buffer.setLength(0);
+		}
+
+		/*
+		 *  Add all the lines queued since the last flush to the Document in a
+		 *  single insertion. Called on the EDT by the flush timer.
+		 *
+		 *  At most MAX_FRAME_LINES lines are inserted per frame to bound the
+		 *  time spent on the EDT, the older ones are summarized with the
+		 *  dropped ones.
+		 */
+		private void flushPending()
+		{
+			frame.setLength(0);
+
+			int maxLines = Math.min(messageLines, MAX_FRAME_LINES);
+
+			if (isAppend)
+				pending.drain(maxLines, frame::append);
+			else
+				pending.drain(maxLines, line -> frame.insert(0, line));
+
+			long dropped = pending.takeDropped();
+
+			if (dropped > 0)
+			{
+				String summary = "[" + dropped + " lines not displayed]";
+
+				if (isAppend)
+					frame.append(EOL + summary);
+				else
+					frame.insert(0, summary + EOL);
+			}
+
+			if (frame.length() == 0) return;
+
+			String text = frame.toString();
+
 			//  In case both the standard out and standard err are being redirected
 			//  we need to insert a newline character for the first line only
 
 			if (isFirstLine && document.getLength() != 0)
 			{
-			    buffer.insert(0, "\n");
+			    text = "\n" + text;
 			}
 
 			isFirstLine = false;
-			String line = buffer.toString();
 
 			try
 			{
 				if (isAppend)
 				{
 					int offset = document.getLength();
-					document.insertString(offset, line, attributes);
+					document.insertString(offset, text, attributes);
 					textComponent.setCaretPosition( document.getLength() );
 				}
 				else
 				{
-					document.insertString(0, line, attributes);
+					document.insertString(0, text, attributes);
 					textComponent.setCaretPosition( 0 );
 				}
 			}
 			catch (BadLocationException ble) {}
-
-			if (printStream != null)
-			{
-				printStream.print(line);
-			}
-
-			buffer.setLength(0);
 		}
 	}
 }
@@ -0,0 +1,129 @@
+package com.tftpclient;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a local file and translates it to netascii (RFC 764) on the fly : the local line separator becomes CR LF
+ * and every other CR becomes CR NUL.
+ * <p>
+ * The file is read into a fixed staging buffer, then a small state machine translates it into the caller's buffer :
+ * each byte is copied once and nothing is allocated while reading. The only state kept between two reads is the second
+ * byte of a pair that did not fit in the previous block, so a CR LF can be split across two DATA packets.
+ */
+public class NetasciiInputStream extends FilterInputStream {
+	private static final boolean crlfLocal = "\r\n".equals(System.lineSeparator());
+
+	private final byte[] readBuf = new byte[512];
+	private final byte[] single = new byte[1];
+	private int readPos, readLen;
+	private boolean eof;
+
+	//Byte to be output before anything else (second half of a CR LF / CR NUL pair), -1 if none
+	private int pending = -1;
+	//A CR was read but not translated yet because the next byte is needed (CR LF line separator only)
+	private boolean heldCR;
+
+	public NetasciiInputStream(InputStream in) {
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+		return read(single,0,1)==-1 ? -1 : single[0]&0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(len==0)
+			return 0;
+		int pos = off;
+		int end = off+len;
+		if(pending>=0){
+			b[pos++]=(byte) pending;
+			pending=-1;
+		}
+		while(pos<end){
+			if(readPos==readLen && !refill()){
+				//A CR at the very end of the file is a lone CR
+				if(heldCR){
+					heldCR=false;
+					pos=put(b,pos,end,(byte) '\r',(byte) 0);
+				}
+				break;
+			}
+			byte c = readBuf[readPos++];
+			if(heldCR){
+				heldCR=false;
+				if(c=='\n'){
+					pos=put(b,pos,end,(byte) '\r',(byte) '\n');
+					continue;
+				}
+				pos=put(b,pos,end,(byte) '\r',(byte) 0);
+				if(pos==end){
+					//No room left for c, give it back
+					readPos--;
+					break;
+				}
+			}
+			if(c=='\r'){
+				if(crlfLocal)
+					heldCR=true;
+				else
+					pos=put(b,pos,end,(byte) '\r',(byte) 0);
+			}
+			else if(c=='\n')
+				pos=put(b,pos,end,(byte) '\r',(byte) '\n');
+			else
+				b[pos++]=c;
+		}
+		return pos==off ? -1 : pos-off;
+	}
+
+	/**
+	 * Writes a 2 bytes sequence, keeping the second one for the next read if the block is full
+	 */
+	private int put(byte[] b, int pos, int end, byte first, byte second) {
+		b[pos++]=first;
+		if(pos<end)
+			b[pos++]=second;
+		else
+			pending=second&0xff;
+		return pos;
+	}
+
+	private boolean refill() throws IOException {
+		if(eof)
+			return false;
+		int n;
+		do {
+			n = in.read(readBuf,0,readBuf.length);
+		}while (n==0);
+		if(n<0){
+			eof=true;
+			return false;
+		}
+		readPos=0;
+		readLen=n;
+		return true;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (readLen-readPos)+(pending>=0 ? 1 : 0);
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while(skipped<n && read()!=-1)
+			skipped++;
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+}
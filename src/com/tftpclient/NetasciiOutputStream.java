@@ -0,0 +1,73 @@
+package com.tftpclient;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Translates netascii (RFC 764) data back to the local format while it is written : CR LF becomes the local line
+ * separator and CR NUL becomes a lone CR.
+ * <p>
+ * Runs of plain bytes are written straight from the caller's buffer, only a pending CR is carried from one block to
+ * the next. The underlying stream should be buffered as line separators are written separately.
+ */
+public class NetasciiOutputStream extends FilterOutputStream {
+	private static final byte[] newLine = System.lineSeparator().getBytes();
+
+	//The last byte written was a CR, its meaning depends on the next byte
+	private boolean pendingCR;
+	private final byte[] single = new byte[1];
+
+	public NetasciiOutputStream(OutputStream out) {
+		super(out);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		single[0]=(byte) b;
+		write(single,0,1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		int end = off+len;
+		int run = off;
+		for(int i=off;i<end;i++){
+			byte c = b[i];
+			if(pendingCR){
+				pendingCR=false;
+				if(c=='\n'){
+					out.write(newLine);
+					run=i+1;
+					continue;
+				}
+				out.write('\r');
+				if(c==0){
+					run=i+1;
+					continue;
+				}
+				//Malformed sequence : the CR is kept as is and c starts a new run
+			}
+			if(c=='\r'){
+				if(i>run)
+					out.write(b,run,i-run);
+				pendingCR=true;
+				run=i+1;
+			}
+		}
+		if(end>run)
+			out.write(b,run,end-run);
+	}
+
+	/**
+	 * Flushes a CR left at the end of the stream then closes the underlying stream
+	 */
+	@Override
+	public void close() throws IOException {
+		if(pendingCR){
+			pendingCR=false;
+			out.write('\r');
+		}
+		super.close();
+	}
+}
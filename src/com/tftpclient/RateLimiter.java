@@ -0,0 +1,82 @@
+package com.tftpclient;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bandwidth limits of the transfers, at 3 levels : every transfer of the client, every transfer with a server and a single transfer
+ * (see {@link TransferMonitor#setRateLimit(long)}). Before each DATA packet it sends (or each ACK, which makes the server send the next DATA packet),
+ * a transfer waits until all the limits applying to it allow it, so the packets are paced instead of flooding small servers and their links.
+ * <p>
+ * The limits can be changed at any time, the transfers running use the new values right away, including for the packet they are waiting to send.
+ */
+public class RateLimiter {
+	//Longest sleep before checking if the transfer was cancelled, in ns
+	private static final long maxSleep = 100_000_000;
+
+	private static final TokenBucket global = new TokenBucket(0);
+	private static final Map<InetAddress,TokenBucket> servers = new ConcurrentHashMap<>();
+
+	private RateLimiter(){}
+
+	/**
+	 * Limits the bandwidth used by all the transfers, in bytes per second (0 for no limit)
+	 */
+	public static void setGlobalRate(long bytesPerSecond) {
+		global.setRate(bytesPerSecond);
+	}
+
+	public static long getGlobalRate() {
+		return global.getRate();
+	}
+
+	/**
+	 * Limits the bandwidth used by all the transfers with a server, whatever its port, in bytes per second (0 for no limit)
+	 */
+	public static void setServerRate(InetAddress server, long bytesPerSecond) {
+		if(bytesPerSecond<=0){
+			TokenBucket bucket = servers.remove(server);
+			//Releases the packets waiting for the old limit
+			if(bucket!=null)
+				bucket.setRate(0);
+		}
+		else
+			servers.computeIfAbsent(server,s -> new TokenBucket(bytesPerSecond)).setRate(bytesPerSecond);
+	}
+
+	public static long getServerRate(InetAddress server) {
+		TokenBucket bucket = servers.get(server);
+		return bucket==null ? 0 : bucket.getRate();
+	}
+
+	/**
+	 * Waits until the given number of bytes can be transferred with the server. Returns early if the transfer is cancelled
+	 * (interrupting the thread cancels the transfer).
+	 */
+	static void acquire(InetAddress server, int bytes, TransferMonitor monitor) {
+		TokenBucket serverBucket = servers.get(server);
+		TokenBucket transferBucket = monitor.getRateLimiter();
+		long globalReservation = global.reserve(bytes);
+		long serverReservation = serverBucket==null ? 0 : serverBucket.reserve(bytes);
+		long transferReservation = transferBucket==null ? 0 : transferBucket.reserve(bytes);
+
+		//The wait is computed again after each sleep, so a limit changed meanwhile applies to this packet too
+		long wait;
+		while(!monitor.shouldStop()){
+			wait = global.waitTime(globalReservation);
+			if(serverBucket!=null)
+				wait = Math.max(wait,serverBucket.waitTime(serverReservation));
+			if(transferBucket!=null)
+				wait = Math.max(wait,transferBucket.waitTime(transferReservation));
+			if(wait==0)
+				return;
+			LockSupport.parkNanos(Math.min(wait,maxSleep));
+			if(Thread.interrupted()){
+				monitor.cancel();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
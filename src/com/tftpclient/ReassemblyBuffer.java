@@ -0,0 +1,98 @@
+package com.tftpclient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Blocks of a window received out of order (see the windowsize option, RFC 7440), kept until the blocks before them arrive
+ * so they can be written in order.
+ * <p>
+ * The blocks are stored in a ring of windowSize slots of 512 bytes indexed by block number : nothing is allocated while receiving.
+ * Blocks are numbered from 1 and counted without the 16 bits roll over of the packets.
+ */
+public class ReassemblyBuffer {
+	private final int size;
+	private final byte[] data;
+	//Length of the block stored in each slot, -1 if the slot is empty
+	private final int[] lengths;
+	//Number of the next block to write
+	private long next = 1;
+	private boolean complete;
+
+	/**
+	 * @param windowSize Number of blocks the server sends before waiting for an ACK
+	 */
+	public ReassemblyBuffer(int windowSize) {
+		if(windowSize<1)
+			throw new IllegalArgumentException("The window size must be greater than 0");
+		size=windowSize;
+		data=new byte[windowSize*512];
+		lengths=new int[windowSize];
+		Arrays.fill(lengths,-1);
+	}
+
+	/**
+	 * @return the number of the next block to write, i.e. every block before it was written
+	 */
+	public long getNext() {
+		return next;
+	}
+
+	/**
+	 * @return true once the last block of the file (shorter than 512 bytes) was written
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Finds where a received block goes
+	 * @param blockNumber 16 bits number of the block, as written in the packet
+	 * @return the offset of the block from the next block to write, -1 if it was already written or it is beyond the window
+	 */
+	public int offset(int blockNumber) {
+		int offset = (blockNumber-(int) next) & 0xffff;
+		return offset<size ? offset : -1;
+	}
+
+	/**
+	 * Stores a block until it can be written
+	 * @param offset Offset of the block, see {@link #offset(int)}
+	 * @return false if this block was already received
+	 */
+	public boolean put(int offset, byte[] src, int off, int len) {
+		if(offset<0 || offset>=size)
+			throw new IndexOutOfBoundsException("Block out of the window : "+offset);
+		if(len>512)
+			throw new IllegalArgumentException("A block contains 512 bytes at most");
+		int slot = (int) ((next+offset)%size);
+		if(lengths[slot]>=0)
+			return false;
+		System.arraycopy(src,off,data,slot*512,len);
+		lengths[slot]=len;
+		return true;
+	}
+
+	/**
+	 * @return the length of the next block to write, -1 if it was not received yet or the file is complete
+	 */
+	public int nextLength() {
+		return complete ? -1 : lengths[(int) (next%size)];
+	}
+
+	/**
+	 * Writes the next block, which must have been received (see {@link #nextLength()}), and frees its slot
+	 */
+	public void writeNext(OutputStream out) throws IOException {
+		int slot = (int) (next%size);
+		int len = lengths[slot];
+		if(len<0 || complete)
+			throw new IllegalStateException("The block #"+next+" was not received");
+		out.write(data,slot*512,len);
+		lengths[slot]=-1;
+		next++;
+		if(len<512)
+			complete=true;
+	}
+}
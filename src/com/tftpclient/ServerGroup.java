@@ -0,0 +1,442 @@
+package com.tftpclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A group of mirrored TFTP servers (i.e. serving the same files). Each transfer is sent to the best server of the group
+ * according to the {@link Selection} policy and automatically goes to the next one if the server does not answer.
+ * <p>
+ * The health of each server is tracked from the transfers themselves : smoothed round trip time, number of transfers
+ * running and failures. A server that failed {@link #failureThreshold} times in a row is put aside for some time
+ * (doubled after each new failure) so a dead mirror does not stall the following transfers.
+ * <p>
+ * A group can be shared by several threads, e.g. to run a batch of transfers in parallel.
+ */
+public class ServerGroup {
+	/**
+	 * How the server of a transfer is chosen among the available ones
+	 */
+	public enum Selection {
+		/**
+		 * The server with the lowest smoothed round trip time. Servers without any measure yet are tried first.
+		 */
+		FASTEST,
+		/**
+		 * The server with the fewest transfers running, the fastest one in case of a tie
+		 */
+		LEAST_LOADED
+	}
+
+	//Number of failures in a row before a server is put aside
+	private static final int failureThreshold = 2;
+	//Time during which a failing server is put aside, doubled after each new failure (up to maxBackoff)
+	private static final long baseBackoff = 5000;
+	private static final long maxBackoff = 5*60*1000;
+	//Weight of a new transfer in the smoothed round trip time of a server
+	private static final double rttAlpha = 0.25;
+
+	private final List<Server> servers = new CopyOnWriteArrayList<>();
+	private final Selection selection;
+	private final ExecutorService hedgeExecutor = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r,"TFTP hedged request");
+		t.setDaemon(true);
+		return t;
+	});
+
+	public ServerGroup(Selection selection) {
+		this.selection=selection;
+	}
+
+	public ServerGroup() {
+		this(Selection.FASTEST);
+	}
+
+	/**
+	 * Adds a server to the group
+	 * @return the server, which can be used to read its statistics
+	 */
+	public Server addServer(InetAddress ip, int port) {
+		Server server = new Server(ip,port);
+		servers.add(server);
+		return server;
+	}
+
+	public void removeServer(Server server) {
+		servers.remove(server);
+	}
+
+	public List<Server> getServers() {
+		return Collections.unmodifiableList(servers);
+	}
+
+	/**
+	 * Sends a file to the best server, and to the next ones if it does not answer.
+	 * @return same values as {@link TFTPClient#sendFile(InetAddress, int, String)}. If every server failed, the error of the last one.
+	 */
+	public int sendFile(String filePath, TransferMode mode, TransferMonitor monitor) {
+		return sendFile(filePath,new File(filePath).getName(),mode,monitor);
+	}
+
+	/**
+	 * Works like {@link #sendFile(String, TransferMode, TransferMonitor)} but the file is named remoteName on the server
+	 */
+	public int sendFile(String filePath, String remoteName, TransferMode mode, TransferMonitor monitor) {
+		Set<Server> tried = new HashSet<>();
+		int result = -3;
+		Server server;
+		while((server=select(tried))!=null){
+			tried.add(server);
+			server.begin();
+			result = TFTPClient.sendFile(server.ip,server.port,filePath,remoteName,mode,monitor);
+			server.end(monitor);
+			if(!isServerFailure(result))
+				return result;
+			System.out.println("Server "+server+" failed, trying the next one.");
+		}
+		return result;
+	}
+
+	public int sendFile(String filePath, TransferMode mode) {
+		return sendFile(filePath,mode,new TransferMonitor());
+	}
+
+	/**
+	 * Receives a file from the best server, and from the next ones if it does not answer. The file is written in the local/ directory.
+	 * @return same values as {@link TFTPClient#receiveFile(InetAddress, int, String)}. If every server failed, the error of the last one.
+	 */
+	public int receiveFile(String fileName, TransferMode mode, TransferMonitor monitor) {
+		return receiveFile(fileName,new File[1],mode,monitor,null,new HashSet<>());
+	}
+
+	/**
+	 * Works like {@link #receiveFile(String, TransferMode, TransferMonitor)} but the file is written to localFile
+	 */
+	public int receiveFile(String fileName, File localFile, TransferMode mode, TransferMonitor monitor) {
+		return receiveFile(fileName,new File[]{localFile},mode,monitor,null,new HashSet<>());
+	}
+
+	/**
+	 * Works like {@link #receiveFile(String, File, TransferMode, TransferMonitor)}, for clients running many transfers
+	 * @param localFile File to write in the first element, null to use a new file of the local/ directory for each attempt :
+	 *                  the file of the last attempt is then put in it
+	 * @param dallier see {@link TFTPClient#receiveFile(InetAddress, int, String, File, TransferMode, TransferMonitor, Executor)}
+	 */
+	int receiveFile(String fileName, File[] localFile, TransferMode mode, TransferMonitor monitor, Executor dallier) {
+		return receiveFile(fileName,localFile,mode,monitor,dallier,new HashSet<>());
+	}
+
+	private int receiveFile(String fileName, File[] localFile, TransferMode mode, TransferMonitor monitor, Executor dallier, Set<Server> tried) {
+		boolean newFiles = localFile[0]==null;
+		return receive(server -> {
+			if(newFiles)
+				localFile[0]=TFTPClient.newLocalFile(fileName);
+			return TFTPClient.receiveFile(server.ip,server.port,fileName,localFile[0],mode,monitor,dallier);
+		},monitor,tried);
+	}
+
+	/**
+	 * Receives a small file in memory, see {@link TFTPClient#receiveFile(InetAddress, int, String, OutputStream, TransferMode, TransferMonitor, long, Executor)}
+	 * @param out Stream written by the transfer, emptied before each attempt
+	 */
+	int receiveFile(String fileName, ByteArrayOutputStream out, TransferMode mode, TransferMonitor monitor, long maxBytes, Executor dallier) {
+		return receive(server -> {
+			out.reset();
+			return TFTPClient.receiveFile(server.ip,server.port,fileName,out,mode,monitor,maxBytes,dallier);
+		},monitor,new HashSet<>());
+	}
+
+	/**
+	 * An attempt of a reception with a server
+	 */
+	private interface Receiver {
+		int receive(Server server);
+	}
+
+	/**
+	 * Runs a reception with the best server, and with the next ones if it does not answer
+	 */
+	private int receive(Receiver receiver, TransferMonitor monitor, Set<Server> tried) {
+		int result = -3;
+		Server server;
+		while((server=select(tried))!=null){
+			tried.add(server);
+			server.begin();
+			result = receiver.receive(server);
+			server.end(monitor);
+			if(!isServerFailure(result))
+				return result;
+			System.out.println("Server "+server+" failed, trying the next one.");
+		}
+		return result;
+	}
+
+	public int receiveFile(String fileName, TransferMode mode) {
+		return receiveFile(fileName,mode,new TransferMonitor());
+	}
+
+	/**
+	 * Receives a file like {@link #receiveFile(String, TransferMode)} but if the first server did not send its first block after hedgeDelay ms,
+	 * the same request is sent to a second server. The first transfer to succeed is kept and the other one is cancelled.
+	 * This trades some server load for a lower tail latency.
+	 * If none of these servers answers, the other servers of the group are tried one after the other.
+	 * @param hedgeDelay Time to wait for the first block before sending the request to a second server, in ms.
+	 *                   A few times the smoothed RTT of the first server is a good value.
+	 */
+	public int receiveFileHedged(String fileName, TransferMode mode, long hedgeDelay) {
+		Server first = select(Collections.emptySet());
+		if(first==null)
+			return -3;
+		File localDir = new File("local");
+		Attempt primary;
+		try {
+			primary = new Attempt(first,fileName,mode,localDir);
+		} catch (IOException e) {
+			return -2;
+		}
+		ExecutorCompletionService<Attempt> completion = new ExecutorCompletionService<>(hedgeExecutor);
+		completion.submit(primary,primary);
+		List<Attempt> running = new ArrayList<>();
+		running.add(primary);
+
+		try {
+			Future<Attempt> done = completion.poll(hedgeDelay,TimeUnit.MILLISECONDS);
+			if(done==null && primary.monitor.getBlocks()==0){
+				Server second = select(Collections.singleton(first));
+				if(second!=null){
+					System.out.println("No answer from "+first+" after "+hedgeDelay+"ms, sending the request to "+second+" too.");
+					Attempt hedge = new Attempt(second,fileName,mode,localDir);
+					completion.submit(hedge,hedge);
+					running.add(hedge);
+				}
+			}
+			//Keeps the first successful attempt, or the result of the primary request if all of them failed
+			Attempt winner = null;
+			for(int remaining=running.size();remaining>0;remaining--){
+				Attempt attempt = (done!=null ? done : completion.take()).get();
+				done = null;
+				if(attempt.monitor.getResult()==0){
+					winner=attempt;
+					break;
+				}
+			}
+			for(Attempt attempt : running)
+				if(attempt!=winner)
+					attempt.discard();
+			if(winner==null){
+				//Every server asked did not answer, the other ones are tried one after the other
+				if(isServerFailure(primary.monitor.getResult())){
+					Set<Server> tried = new HashSet<>();
+					for(Attempt attempt : running)
+						tried.add(attempt.server);
+					return receiveFile(fileName,new File[1],mode,new TransferMonitor(),null,tried);
+				}
+				return primary.monitor.getResult();
+			}
+			try {
+				Files.move(winner.file.toPath(),TFTPClient.newLocalFile(fileName).toPath(),StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				//The local file could not be written
+				winner.file.delete();
+				return -2;
+			}
+			return 0;
+		} catch (InterruptedException e) {
+			for(Attempt attempt : running)
+				attempt.discard();
+			Thread.currentThread().interrupt();
+			return -6;
+		} catch (ExecutionException e) {
+			for(Attempt attempt : running)
+				attempt.discard();
+			return -6;
+		} catch (IOException e) {
+			for(Attempt attempt : running)
+				attempt.discard();
+			return -2;
+		}
+	}
+
+	/**
+	 * A request of a hedged reception, written to a temporary file until it wins
+	 */
+	private static class Attempt implements Runnable {
+		final Server server;
+		final String fileName;
+		final TransferMode mode;
+		final File file;
+		final TransferMonitor monitor = new TransferMonitor();
+		private boolean finished;
+		private boolean discarded;
+
+		Attempt(Server server, String fileName, TransferMode mode, File localDir) throws IOException {
+			this.server=server;
+			this.fileName=fileName;
+			this.mode=mode;
+			localDir.mkdirs();
+			this.file=File.createTempFile("tftp",".part",localDir);
+		}
+
+		public void run() {
+			server.begin();
+			TFTPClient.receiveFile(server.ip,server.port,fileName,file,mode,monitor);
+			server.end(monitor);
+			synchronized (this) {
+				finished=true;
+				if(discarded)
+					file.delete();
+			}
+		}
+
+		/**
+		 * Stops the attempt if it is still running, its file is deleted once it is over (even if it succeeded)
+		 */
+		synchronized void discard() {
+			discarded=true;
+			monitor.cancel();
+			if(finished)
+				file.delete();
+		}
+	}
+
+	/**
+	 * Only an unanswered request is the server's fault, other errors would happen on any server
+	 */
+	private static boolean isServerFailure(int result) {
+		return result==-3;
+	}
+
+	/**
+	 * Chooses the server of a transfer among the ones not tried yet. Servers put aside are only chosen if no other server is left.
+	 * @return the chosen server, null if every server was tried
+	 */
+	private Server select(Set<Server> tried) {
+		long now = System.currentTimeMillis();
+		Server best = null;
+		Server bestAside = null;
+		for(Server server : servers){
+			if(tried.contains(server))
+				continue;
+			if(server.isAside(now)){
+				if(bestAside==null || server.asideUntil<bestAside.asideUntil)
+					bestAside=server;
+			}
+			else if(best==null || compare(server,best)<0)
+				best=server;
+		}
+		return best!=null ? best : bestAside;
+	}
+
+	private int compare(Server a, Server b) {
+		//A server that just failed comes after the others, even if it has no RTT measure
+		if(a.consecutiveFailures!=b.consecutiveFailures)
+			return Integer.compare(a.consecutiveFailures,b.consecutiveFailures);
+		if(selection==Selection.LEAST_LOADED && a.active.get()!=b.active.get())
+			return Integer.compare(a.active.get(),b.active.get());
+		return Double.compare(a.smoothedRtt,b.smoothedRtt);
+	}
+
+	/**
+	 * A server of the group and its health statistics
+	 */
+	public static class Server {
+		private final InetAddress ip;
+		private final int port;
+		private final AtomicInteger active = new AtomicInteger();
+		private volatile double smoothedRtt;
+		private volatile int transfers;
+		private volatile int failures;
+		private volatile int consecutiveFailures;
+		private volatile long asideUntil;
+
+		private Server(InetAddress ip, int port) {
+			this.ip=ip;
+			this.port=port;
+		}
+
+		private void begin() {
+			active.incrementAndGet();
+		}
+
+		/**
+		 * Updates the statistics of the server with the result of a transfer
+		 */
+		private synchronized void end(TransferMonitor monitor) {
+			active.decrementAndGet();
+			transfers++;
+			if(monitor.getRttSamples()>0){
+				double rtt = monitor.getSmoothedRtt();
+				smoothedRtt = smoothedRtt==0 ? rtt : smoothedRtt+rttAlpha*(rtt-smoothedRtt);
+			}
+			if(isServerFailure(monitor.getResult())){
+				failures++;
+				consecutiveFailures++;
+				if(consecutiveFailures>=failureThreshold){
+					long backoff = baseBackoff<<Math.min(consecutiveFailures-failureThreshold,16);
+					asideUntil=System.currentTimeMillis()+Math.min(backoff,maxBackoff);
+				}
+			}
+			else if(monitor.getResult()!=-6 && monitor.getResult()!=-7){
+				consecutiveFailures=0;
+				asideUntil=0;
+			}
+		}
+
+		private boolean isAside(long now) {
+			return asideUntil>now;
+		}
+
+		public InetAddress getIp() {
+			return ip;
+		}
+
+		public int getPort() {
+			return port;
+		}
+
+		/**
+		 * @return the smoothed round trip time of the server in ms, 0 if no transfer was measured yet
+		 */
+		public double getSmoothedRtt() {
+			return smoothedRtt;
+		}
+
+		/**
+		 * @return the number of transfers running on this server
+		 */
+		public int getActiveTransfers() {
+			return active.get();
+		}
+
+		public int getTransfers() {
+			return transfers;
+		}
+
+		/**
+		 * @return the number of transfers that failed because the server did not answer
+		 */
+		public int getFailures() {
+			return failures;
+		}
+
+		/**
+		 * @return false if the server is put aside after too many failures in a row
+		 */
+		public boolean isAvailable() {
+			return !isAside(System.currentTimeMillis());
+		}
+
+		@Override
+		public String toString() {
+			return ip.getHostAddress()+":"+port;
+		}
+	}
+}
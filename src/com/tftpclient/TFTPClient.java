@@ -4,7 +4,14 @@ import java.io.*;
 import java.lang.reflect.Array;
 import java.math.BigInteger;
 import java.net.*;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
 
 /**
  * A class representing a TFTP client. The Pumpkin server is used to test the 2 primary methods : {@link #sendFile} and {@link #receiveFile}
@@ -13,7 +20,7 @@ public class TFTPClient {
 	/**
 	 * Values of the opcodes used in the packets
 	 */
-	private enum opcode {RRQ(1),WRQ(2),DATA(3),ACK(4),ERROR(5);
+	private enum opcode {RRQ(1),WRQ(2),DATA(3),ACK(4),ERROR(5),OACK(6);
 		public final int value;
 		opcode(int i) {this.value=i;}
 	}
@@ -22,20 +29,26 @@ public class TFTPClient {
 	private static final String[] serverErrors = {"Not defined, see error message (if any)","File not found.",
 			"Access violation (the host may have denied your request or you don't have the right to read/write the file).",
 			"Disk full or allocation exceeded.", "Illegal TFTP operation.","Unknown transfer ID.",
-			"File already exists.","No such user."};
+			"File already exists.","No such user.","The options of the request were refused."};
 	private static final String[] localErrors = {"Could not create the socket",
 			"Error encountered while trying to open the file","I/O error while sending/receiving a packet",
-			"Error encountered while trying to read the file","I/O error while closing the file reader"};
+			"Error encountered while trying to read the file","I/O error while closing the file reader",
+			"The transfer was cancelled","The deadline of the transfer was exceeded","The file is larger than the maximum size allowed",
+			"Unexpected error during the transfer"};
 
-	//Default write mode for the strings
-	private static final String defaultMode = "netascii";
+	//Default transfer mode : files are sent as is, see TransferMode.NETASCII for text files
+	static final TransferMode defaultMode = TransferMode.OCTET;
 
 	//Default timeout value before sending the packet again : 1 min
 	private static final int defaultTimeout = 500;
 	private static final int defaultReSend = 3;
+	//Time during which the last ACK of a received file can be sent again
+	private static final int defaultDally = defaultTimeout;
+	//Number of timeouts after which a passive client of a multicast transfer gives up, it waits while the other clients are served
+	private static final int passiveTimeouts = 60;
 
 	//Default IP address
-	private static InetAddress defaultIP;
+	static InetAddress defaultIP;
 	static {
 		try {
 			defaultIP = InetAddress.getByName("localhost");
@@ -45,16 +58,104 @@ public class TFTPClient {
 	}
 
 	//Default server port
-	private static final int defaultServerPort=69;
+	static final int defaultServerPort=69;
+
+	//Prints every packet and block of the transfers
+	private static volatile boolean verbose = true;
+
+	//Number of blocks the server may send before waiting for an ACK (windowsize option, RFC 7440), 1 to send no option
+	private static volatile int windowSize = 1;
+
+	//Asks the servers to compress the data of the transfers (compress option), see setCompression
+	private static volatile boolean compression;
+	//Only codec supported : zlib stream (RFC 1950) of the file, cut into blocks like the file itself
+	private static final String compressionCodec = "deflate";
+
+	//Where the finished transfers are recorded, null to record nothing
+	private static volatile TransferHistory history;
 
 
 	/**
-	 * Send a file to the server
+	 * Send a file to the server using the default mode ({@link TransferMode#OCTET})
 	 * @return 0 if the file was sent successfully or -/+(errorCode+1) if an error occurred. Negative value : local error (see {@link TFTPClient#localErrors} for descriptions),
 	 * Positive value : server error (see {@link TFTPClient#localErrors} for descriptions).
 	 * @apiNote Either check the String array corresponding to your type of error at (+/-yourCode)-1 or use the {@link #getErrorMessage(int)} with the result of this method.
 	 */
 	public static int sendFile(InetAddress serverIP, int serverPort, String filePath){
+		return sendFile(serverIP,serverPort,filePath,defaultMode);
+	}
+
+	/**
+	 * Send a file to the server using the given transfer mode. In {@link TransferMode#NETASCII} mode, the line endings are translated while the file is read (see {@link NetasciiInputStream}).
+	 * @return same values as {@link #sendFile(InetAddress, int, String)}
+	 */
+	public static int sendFile(InetAddress serverIP, int serverPort, String filePath, TransferMode mode){
+		return sendFile(serverIP,serverPort,filePath,mode,new TransferMonitor());
+	}
+
+	/**
+	 * Works like {@link #sendFile(InetAddress, int, String, TransferMode)}, the progress and statistics of the transfer are reported to the given monitor
+	 * which can also be used to cancel the transfer.
+	 */
+	public static int sendFile(InetAddress serverIP, int serverPort, String filePath, TransferMode mode, TransferMonitor monitor){
+		return sendFile(serverIP,serverPort,filePath,new File(filePath).getName(),mode,monitor);
+	}
+
+	/**
+	 * Works like {@link #sendFile(InetAddress, int, String, TransferMode, TransferMonitor)} but the file is named remoteName on the server
+	 * instead of the name of the local file (e.g. to send it to a sub-directory).
+	 */
+	public static int sendFile(InetAddress serverIP, int serverPort, String filePath, String remoteName, TransferMode mode, TransferMonitor monitor){
+		TransferEvents.TransferEnd event = traceStart("put",serverIP,serverPort,remoteName,mode);
+		monitor.start(serverIP,serverPort);
+		int result = send(serverIP,serverPort,filePath,remoteName,mode,monitor);
+		monitor.finish(result);
+		traceEnd(event,monitor);
+		return result;
+	}
+
+	/**
+	 * Records the beginning of a transfer, see {@link TransferEvents}
+	 * @return the event recording the whole transfer, to commit with {@link #traceEnd}
+	 */
+	private static TransferEvents.TransferEnd traceStart(String operation, InetAddress serverIP, int serverPort, String fileName, TransferMode mode) {
+		TransferEvents.TransferStart start = new TransferEvents.TransferStart();
+		if(start.shouldCommit()){
+			start.operation=operation;
+			start.server=serverIP.getHostAddress()+":"+serverPort;
+			start.file=fileName;
+			start.mode=mode.value;
+			start.commit();
+		}
+		TransferEvents.TransferEnd end = new TransferEvents.TransferEnd();
+		end.begin();
+		end.operation=operation;
+		end.file=fileName;
+		return end;
+	}
+
+	private static void traceEnd(TransferEvents.TransferEnd event, TransferMonitor monitor) {
+		event.end();
+		if(event.shouldCommit()){
+			InetSocketAddress server = monitor.getServer();
+			event.server=server.getAddress().getHostAddress()+":"+server.getPort();
+			event.result=monitor.getResult();
+			event.bytes=monitor.getBytes();
+			event.blocks=monitor.getBlocks();
+			event.retransmits=monitor.getRetransmits();
+			event.commit();
+		}
+		TransferHistory h = history;
+		if(h!=null){
+			try {
+				h.record(event.operation.equals("get"),event.file,monitor);
+			} catch (IOException e) {
+				System.out.println("Could not record the transfer in the history : "+e.getMessage());
+			}
+		}
+	}
+
+	private static int send(InetAddress serverIP, int serverPort, String filePath, String fileName, TransferMode mode, TransferMonitor monitor){
 		double time = System.currentTimeMillis();
 
 		//Creating the socket for the transmission
@@ -70,89 +171,135 @@ public class TFTPClient {
 
 		//Opening the file
 		File file = new File(filePath);
-		String fileName = file.getName();
-		FileInputStream fs;
+		InputStream fs;
 		try {
 			fs = new FileInputStream(file);
 		} catch (FileNotFoundException e) {
 			System.out.println(localErrors[1]);
+			sc.close();
 			return -2;
 		}
+		monitor.setTotalBytes(file.length());
+		if(mode==TransferMode.NETASCII)
+			fs = new NetasciiInputStream(fs);
 
 		System.out.println("\n--------------------");
-		System.out.println("Starting TFTP request for : \""+fileName+"\"");
+		System.out.println("Starting TFTP request for : \""+fileName+"\" ("+mode.value+")");
 
 		//Preparing to send the WRQ packet to the server
-		byte[] wrqMsg = createWRQ(fileName);
+		Map<String,String> options = new LinkedHashMap<>();
+		if(compression)
+			options.put("compress",compressionCodec);
+		byte[] wrqMsg = createRequest(opcode.WRQ,fileName,mode,options);
 		DatagramPacket dp = new DatagramPacket(wrqMsg,wrqMsg.length,serverIP,serverPort);
 
 		DatagramPacket resPacket;
 		try {
-			resPacket = sendReceive(sc,dp);
+			resPacket = sendReceive(sc,dp,monitor);
+			if(!options.isEmpty() && resPacket.getData()[1]==opcode.ERROR.value && resPacket.getData()[3]==8){
+				System.out.println("The server refused the options, sending the request again without them.");
+				wrqMsg = createWRQ(fileName,mode);
+				dp = new DatagramPacket(wrqMsg,wrqMsg.length,serverIP,serverPort);
+				resPacket = sendReceive(sc,dp,monitor);
+			}
 		} catch (IOException e) {
-			System.out.println(localErrors[2]);
-			return -3;
+			int result = communicationError(sc,dp,monitor);
+			closeQuietly(fs,sc);
+			return result;
 		}
 
-		byte[] resMsg = resPacket.getData();
-		//Checking an error
-		if(resMsg[1]!=opcode.ACK.value){
-			try{
-				throwError(resMsg);
-			}catch (TFTPException e){
-				System.out.println(e.getMessage());
-				return resMsg[3]+1;
+		//The options acknowledged replace the ACK of the block 0
+		if(resPacket.getData()[1]==opcode.OACK.value){
+			String codec = parseOptions(resPacket).get("compress");
+			if(codec!=null && !codec.equalsIgnoreCase(compressionCodec))
+				return invalidOptions(sc,fs,resPacket);
+			if(codec!=null){
+				if(verbose)
+					System.out.println("Compression accepted by the server");
+				fs = new DeflaterInputStream(fs);
+				//Only the compressed size is counted, it is not known in advance
+				monitor.setTotalBytes(-1);
 			}
 		}
+		//Checking an error
+		else if(resPacket.getData()[1]!=opcode.ACK.value){
+			closeQuietly(fs,sc);
+			return serverError(resPacket);
+		}
 
 		//Updating the communication port (--> the server attributes a port for each communication)
 		serverPort=resPacket.getPort();
 
-		//Creating the DATA packet
+		//The DATA packet is built once and its payload is read straight from the file for each block
+		byte[] dataMsg = new byte[516];
+		BytesUtils.putShort(dataMsg,0,opcode.DATA.value);
 		int blockN = 1;
 		int dataLength = 516;
-		byte[] fileData;
+		dp = new DatagramPacket(dataMsg, 0, serverIP, serverPort);
 		while(dataLength==516) {
-			fileData = new byte[512];
+			TransferEvents.DiskRead read = new TransferEvents.DiskRead();
+			read.begin();
 			try {
-				dataLength = fs.read(fileData, 0, 512)+4;
+				dataLength = BytesUtils.readFully(fs, dataMsg, 4, 512)+4;
 			} catch (IOException e) {
 				System.out.println(localErrors[3]);
+				closeQuietly(fs,sc);
 				return -4;
 			}
-			byte[] dataMsg = createDATA(fileData, blockN);
+			read.end();
+			if(read.shouldCommit()){
+				read.bytes=dataLength-4;
+				read.commit();
+			}
+			//Block numbers are 16 bits and roll over after 65535
+			BytesUtils.putShort(dataMsg,2,blockN);
 
-			System.out.println("\nSending the #" + blockN + " block of " + dataLength + " bytes");
+			//Pacing the packets according to the bandwidth limits
+			RateLimiter.acquire(serverIP,dataLength,monitor);
+			if(monitor.shouldStop()){
+				int result = communicationError(sc,dp,monitor);
+				closeQuietly(fs,sc);
+				return result;
+			}
+
+			if(verbose)
+				System.out.println("\nSending the #" + blockN + " block of " + dataLength + " bytes");
 			blockN++;
-			dp = new DatagramPacket(dataMsg, dataLength, serverIP, serverPort);
+			dp.setLength(dataLength);
 			try {
-				resPacket = sendReceive(sc, dp);
+				resPacket = sendReceive(sc, dp, monitor);
 			} catch (IOException e) {
-				System.out.println(localErrors[2]);
-				return -3;
+				int result = communicationError(sc,dp,monitor);
+				closeQuietly(fs,sc);
+				return result;
 			}
 			if (resPacket.getData()[1] != opcode.ACK.value) {
-				try{
-					throwError(resPacket.getData());
-				}catch (TFTPException e){
-					System.out.println(e.getMessage());
-					return resMsg[3]+1;
-				}
+				closeQuietly(fs,sc);
+				return serverError(resPacket);
 			}
+			monitor.block(dataLength-4);
 		}
 		//Terminating the communication
+		sc.close();
 		try {
 			fs.close();
 		} catch (IOException e) {
 			System.out.println(localErrors[4]);
 			return -5;
 		}
-		sc.close();
 		System.out.println("File \""+fileName+"\" sent successfully in "+(System.currentTimeMillis()-time)+"ms.");
 		System.out.println("--------------------\n");
 		return 0;
 	}
 
+	/**
+	 * Works like {@link #sendFile(InetAddress, int, String, TransferMode)} but the address is {@link #defaultIP} i.e. the address at localhost
+	 * @see #sendFile(InetAddress, int, String, TransferMode)
+	 */
+	public static int sendFile(int serverPort,String filePath,TransferMode mode){
+		return sendFile(defaultIP,serverPort,filePath,mode);
+	}
+
 	/**
 	 * Works like {@link #sendFile(InetAddress, int, String)} but the address is {@link #defaultIP} i.e. the address at localhost
 	 * @see #sendFile(InetAddress, int, String)
@@ -173,85 +320,161 @@ public class TFTPClient {
 	 * Sends a packet to the server and wait for the response.
 	 * @param sc The client's socket
 	 * @param dp Last packet sent
+	 * @param monitor Monitor of the transfer, the wait is stopped if it is cancelled
 	 * @return Response of the server
 	 */
-	private static DatagramPacket sendReceive(DatagramSocket sc, DatagramPacket dp) throws IOException {
+	private static DatagramPacket sendReceive(DatagramSocket sc, DatagramPacket dp, TransferMonitor monitor) throws IOException {
 		//Send the packet to the server and
 		byte[] recMsg = new byte[516];
 		DatagramPacket rec = new DatagramPacket(recMsg,516);
-		System.out.println("Sending the packet : "+Arrays.toString(dp.getData()));
-		sc.send(dp);
+		if(verbose)
+			System.out.println("Sending the packet : "+Arrays.toString(Arrays.copyOfRange(dp.getData(),dp.getOffset(),dp.getOffset()+dp.getLength())));
+		//Number of the block sent, 0 for a request
+		int blockN = dp.getData()[dp.getOffset()+1]==opcode.DATA.value ? BytesUtils.getShort(dp.getData(),dp.getOffset()+2) : 0;
+		long sent = System.nanoTime();
+		sendBlock(sc,dp,blockN);
+		//The answer is an ACK, or the first block of a file requested
+		TransferEvents.AckReceived ackEvent = new TransferEvents.AckReceived();
+		TransferEvents.BlockReceived blockEvent = new TransferEvents.BlockReceived();
+		ackEvent.begin();
+		blockEvent.begin();
 
 		//Try to receive the response from the server, if the timeout exceeded, re-sends the packet
 		boolean received = false;
 		int i=0;
 		do {
+			TransferEvents.Timeout timeout = new TransferEvents.Timeout();
+			timeout.begin();
 			try{
 				sc.receive(rec);
-				System.out.println("Received a packet from the server : "+Arrays.toString(rec.getData()));
+				if(i==0)
+					monitor.rtt(System.nanoTime()-sent);
+				if(verbose)
+					System.out.println("Received a packet from the server : "+Arrays.toString(Arrays.copyOf(rec.getData(),rec.getLength())));
 				received=true;
 			}catch (SocketTimeoutException e){
+				traceTimeout(timeout,blockN,i+1);
+				if(monitor.shouldStop())
+					throw new IOException();
 				if(i==defaultReSend){
 					System.out.println("No response received in "+defaultReSend+" tries. Cancelling the communication.");
 					throw new IOException();
 				}
 				System.out.println("No response from the server, re-sending the packet.");
-				sc.send(dp);
+				TransferEvents.retransmit(blockN,"timeout");
+				sendBlock(sc,dp,blockN);
+				ackEvent.begin();
+				blockEvent.begin();
+				monitor.retransmit();
 				i++;
 			}
 		}while (!received);
+		ackEvent.end();
+		blockEvent.end();
+		if(rec.getData()[1]==opcode.ACK.value && ackEvent.shouldCommit()){
+			ackEvent.block=BytesUtils.getShort(rec.getData(),2);
+			ackEvent.commit();
+		}
+		else if(rec.getData()[1]==opcode.DATA.value && blockEvent.shouldCommit()){
+			blockEvent.block=BytesUtils.getShort(rec.getData(),2);
+			blockEvent.bytes=rec.getLength()-4;
+			blockEvent.commit();
+		}
 		return rec;
 	}
 
+	/**
+	 * Sends a packet, a DATA packet is recorded as a {@link TransferEvents.BlockSent} event
+	 * @param blockN Number of the block sent, 0 for another packet
+	 */
+	private static void sendBlock(DatagramSocket sc, DatagramPacket dp, int blockN) throws IOException {
+		TransferEvents.BlockSent event = new TransferEvents.BlockSent();
+		event.begin();
+		sc.send(dp);
+		event.end();
+		if(blockN!=0 && event.shouldCommit()){
+			event.block=blockN;
+			event.bytes=dp.getLength()-4;
+			event.commit();
+		}
+	}
+
+	private static void traceTimeout(TransferEvents.Timeout event, int blockN, int attempt) {
+		event.end();
+		if(event.shouldCommit()){
+			event.block=blockN;
+			event.attempt=attempt;
+			event.commit();
+		}
+	}
+
 	// WRQ = 2
 	// 2 bytes : Opcode / string : filename / 1 byte : 0 / string : Mode / 1 byte : 0
-	private static byte[] createWRQ(String fileName){
-		byte[] fileBytes = fileName.getBytes();
-		byte[] modeBytes = defaultMode.getBytes();
-		byte[] opBytes = {0, (byte) opcode.WRQ.value};
-		byte[] zeroByte =new byte[]{(byte) 0};
-		return BytesUtils.concat(BytesUtils.concat(BytesUtils.concat(BytesUtils.concat(opBytes,fileBytes), zeroByte),modeBytes),zeroByte);
+	private static byte[] createWRQ(String fileName, TransferMode mode){
+		return createRequest(opcode.WRQ,fileName,mode);
 	}
 
 	// RRQ = 1
 	// 2 bytes : Opcode / string : filename / 1 byte : 0 / string : Mode / 1 byte : 0
-	private static byte[] createRRQ(String fileName) {
-		byte[] fileBytes = fileName.getBytes();
-		byte[] modeBytes = defaultMode.getBytes();
-		byte[] opBytes = {0, (byte) opcode.RRQ.value};
-		byte[] zeroByte =new byte[]{(byte) 0};
-		return BytesUtils.concat(BytesUtils.concat(BytesUtils.concat(BytesUtils.concat(opBytes,fileBytes), zeroByte),modeBytes),zeroByte);
+	private static byte[] createRRQ(String fileName, TransferMode mode) {
+		return createRequest(opcode.RRQ,fileName,mode,Collections.emptyMap());
 	}
 
-	// DATA
-	// 2 bytes : Opcode / 2 bytes : Block# / n bytes : Data (0 to 512 bytes)
-	private static byte[] createDATA(byte[] fileData,int blockN) {
-		byte[] opBytes = {0, (byte) opcode.DATA.value};
-		byte[] tempNumber = BigInteger.valueOf(blockN).toByteArray();
-		byte[] blockNumber;
-		if(tempNumber.length<2)
-			 blockNumber= new byte[]{0, tempNumber[0]};
-		else
-			blockNumber = tempNumber;
-		return BytesUtils.concat(BytesUtils.concat(opBytes,blockNumber), fileData);
+	// RRQ with options (RFC 2347)
+	// ... / string : option name / 1 byte : 0 / string : option value / 1 byte : 0 / ...
+	private static byte[] createRRQ(String fileName, TransferMode mode, Map<String,String> options) {
+		return createRequest(opcode.RRQ,fileName,mode,options);
 	}
 
-	// ACK
-	// 2 bytes : Opcode / 2 bytes : Block#
-	private static byte[] createACK(int blockN) {
-		byte[] tempNumber = BigInteger.valueOf(blockN).toByteArray();
-		byte[] blockNumber;
-		if(tempNumber.length<2)
-			blockNumber= new byte[]{0, tempNumber[0]};
-		else
-			blockNumber = tempNumber;
-		byte[] res = new byte[]{0, (byte) opcode.ACK.value};
-		return BytesUtils.concat(res,blockNumber);
+	private static byte[] createRequest(opcode op, String fileName, TransferMode mode) {
+		return createRequest(op,fileName,mode,Collections.emptyMap());
+	}
+
+	private static byte[] createRequest(opcode op, String fileName, TransferMode mode, Map<String,String> options) {
+		byte[] fileBytes = fileName.getBytes();
+		byte[] modeBytes = mode.value.getBytes();
+		byte[] opBytes = {0, (byte) op.value};
+		byte[] zeroByte =new byte[]{(byte) 0};
+		byte[] request = BytesUtils.concat(BytesUtils.concat(BytesUtils.concat(BytesUtils.concat(opBytes,fileBytes), zeroByte),modeBytes),zeroByte);
+		for(Map.Entry<String,String> option : options.entrySet())
+			request = BytesUtils.concat(BytesUtils.concat(BytesUtils.concat(BytesUtils.concat(request,option.getKey().getBytes()),zeroByte),option.getValue().getBytes()),zeroByte);
+		return request;
+	}
+
+	/**
+	 * Reads the options acknowledged by the server
+	 * OACK = 6
+	 * 2 bytes : Opcode / string : option name / 1 byte : 0 / string : option value / 1 byte : 0 / ...
+	 * @return the options by lower case name
+	 */
+	private static Map<String,String> parseOptions(DatagramPacket oack) {
+		Map<String,String> options = new HashMap<>();
+		byte[] msg = oack.getData();
+		int end = oack.getOffset()+oack.getLength();
+		int i = oack.getOffset()+2;
+		String name = null;
+		for(int start=i;i<end;i++){
+			if(msg[i]!=0)
+				continue;
+			String field = new String(msg,start,i-start);
+			if(name==null)
+				name = field.toLowerCase(Locale.ROOT);
+			else{
+				options.put(name,field);
+				name = null;
+			}
+			start = i+1;
+		}
+		return options;
 	}
 
 	// ERROR
 	// 2 bytes : Opcode / 2 bytes : ErrorCode / string : ErrorMessage / 1 byte : 0
 	private static byte[] createError(int errorCode) {
+		return createError(errorCode,serverErrors[errorCode]);
+	}
+
+	private static byte[] createError(int errorCode, String message) {
 		byte[] opBytes = {0, (byte) opcode.ERROR.value};
 		byte[] tempNumber = BigInteger.valueOf(errorCode).toByteArray();
 		byte[] codeByte;
@@ -260,10 +483,49 @@ public class TFTPClient {
 		else
 			codeByte = tempNumber;
 		byte[] zeroByte =new byte[]{(byte) 0};
-		byte[] messageByte = serverErrors[errorCode].getBytes();
+		byte[] messageByte = message.getBytes();
 		return BytesUtils.concat(BytesUtils.concat(BytesUtils.concat(opBytes,codeByte),messageByte),zeroByte);
 	}
 
+	/**
+	 * Prints the error sent by the server
+	 * @return the server error code, as returned by {@link #sendFile(InetAddress, int, String)}
+	 */
+	private static int serverError(DatagramPacket resPacket) {
+		try{
+			throwError(resPacket.getData());
+		}catch (TFTPException e){
+			System.out.println(e.getMessage());
+		}
+		return resPacket.getData()[3]+1;
+	}
+
+	/**
+	 * Handles a failed communication with the server : either the server did not answer or the transfer was cancelled (or its deadline passed).
+	 * In the latter case, the server is told that the transfer is over.
+	 * @param lastSent Last packet sent to the server
+	 * @return the corresponding local error code
+	 */
+	private static int communicationError(DatagramSocket sc, DatagramPacket lastSent, TransferMonitor monitor) {
+		if(!monitor.shouldStop()){
+			System.out.println(localErrors[2]);
+			return -3;
+		}
+		boolean cancelled = monitor.isCancelled();
+		System.out.println(localErrors[cancelled ? 5 : 6]);
+		byte[] errMsg = createError(0,cancelled ? "Transfer cancelled by the client" : "Transfer deadline exceeded");
+		try {
+			sc.send(new DatagramPacket(errMsg,errMsg.length,lastSent.getAddress(),lastSent.getPort()));
+		} catch (IOException ignored) {}
+		return cancelled ? -6 : -7;
+	}
+
+	private static void closeQuietly(Closeable stream, DatagramSocket sc) {
+		try{if(stream!=null) stream.close();}catch (Exception ignored){}
+		if(sc!=null)
+			sc.close();
+	}
+
 	private static void throwError(byte[] resMsg) throws TFTPException {
 		byte[] byteMsg = new byte[resMsg.length-4];
 		System.arraycopy(resMsg,4,byteMsg,0,resMsg.length-4);
@@ -271,11 +533,60 @@ public class TFTPClient {
 		throw new TFTPException(serverErrors[resMsg[3]]+" Error message : "+errMsg);
 	}
 
+	/**
+	 * Enables or disables the messages printed for each packet and block of the transfers (enabled by default).
+	 * The beginning, the end and the errors of the transfers are always printed.
+	 */
+	public static void setVerbose(boolean verbose){
+		TFTPClient.verbose=verbose;
+	}
+
+	/**
+	 * Sets the number of blocks a server may send in a row before waiting for an ACK when a file is received (windowsize option, RFC 7440).
+	 * Blocks of a window arriving out of order are put back in order. With 1 (the default), no option is sent (RFC 1350) ;
+	 * servers that do not support the option also send one block at a time.
+	 */
+	public static void setWindowSize(int windowSize){
+		if(windowSize<1 || windowSize>65535)
+			throw new IllegalArgumentException("The window size must be between 1 and 65535");
+		TFTPClient.windowSize=windowSize;
+	}
+
+	public static int getWindowSize(){
+		return windowSize;
+	}
+
+	/**
+	 * Enables the compression of the transfers with the servers supporting it. The request then carries a "compress" option whose value is
+	 * "deflate" : if the server acknowledges it, the data sent in the blocks is a zlib stream (RFC 1950) of the file instead of the file itself.
+	 * The blocks are still 512 bytes and acknowledged as usual. Servers that do not know the option ignore it and the file is sent as is.
+	 * Small files received in memory are never compressed, their maximum size would not be checked.
+	 */
+	public static void setCompression(boolean compression){
+		TFTPClient.compression=compression;
+	}
+
+	public static boolean isCompression(){
+		return compression;
+	}
+
+	/**
+	 * Records every finished transfer (including the failed ones) in a history, see {@link TransferHistory}
+	 * @param history The history, null to stop recording
+	 */
+	public static void setHistory(TransferHistory history){
+		TFTPClient.history=history;
+	}
+
+	public static TransferHistory getHistory(){
+		return history;
+	}
+
 	/**
 	 * Returns the error message corresponding to the code given. This code should be a return value from the {@link #sendFile(InetAddress, int, String)} method.
 	 */
 	public static String getErrorMessage(int errorCode){
-		if(errorCode>serverErrors.length-1 || -errorCode>localErrors.length-1)
+		if(errorCode>serverErrors.length || -errorCode>localErrors.length)
 			return "No message was found for this error code.";
 		if(errorCode==0)
 			return "No problem occurred while sending/receiving the file";
@@ -287,22 +598,80 @@ public class TFTPClient {
 	}
 
 	/**
-	 * Receive a file from the server
+	 * Receive a file from the server using the default mode ({@link TransferMode#OCTET})
+	 * @return same values as {@link #sendFile(InetAddress, int, String)}
 	 */
 	public static int receiveFile(InetAddress serverIP,int serverPort,String fileName){
-		double time = System.currentTimeMillis();
+		return receiveFile(serverIP,serverPort,fileName,defaultMode);
+	}
 
-		//Creating the socket for the transmission
-		DatagramSocket sc;
+	/**
+	 * Receive a file from the server using the given transfer mode. In {@link TransferMode#NETASCII} mode, the line endings are translated while the file is written (see {@link NetasciiOutputStream}).
+	 * @return same values as {@link #sendFile(InetAddress, int, String)}
+	 */
+	public static int receiveFile(InetAddress serverIP,int serverPort,String fileName,TransferMode mode){
+		return receiveFile(serverIP,serverPort,fileName,newLocalFile(fileName),mode,new TransferMonitor());
+	}
+
+	/**
+	 * Works like {@link #receiveFile(InetAddress, int, String, TransferMode)} but the file is written to localFile instead of the local/ directory.
+	 * The progress and statistics of the transfer are reported to the given monitor which can also be used to cancel the transfer.
+	 * If the transfer fails, the local file is deleted.
+	 */
+	public static int receiveFile(InetAddress serverIP,int serverPort,String fileName,File localFile,TransferMode mode,TransferMonitor monitor){
+		return receiveFile(serverIP,serverPort,fileName,localFile,mode,monitor,null);
+	}
+
+	/**
+	 * Works like {@link #receiveFile(InetAddress, int, String, File, TransferMode, TransferMonitor)}, for clients running many transfers
+	 * @param dallier Executor waiting for a lost last ACK (see {@link #dally}) so the transfer returns as soon as the file is complete, null to wait before returning
+	 */
+	static int receiveFile(InetAddress serverIP,int serverPort,String fileName,File localFile,TransferMode mode,TransferMonitor monitor,Executor dallier){
+		TransferEvents.TransferEnd event = traceStart("get",serverIP,serverPort,fileName,mode);
+		monitor.start(serverIP,serverPort);
+		OutputStream fs;
+		int result;
 		try {
-			sc = new DatagramSocket();
-			sc.setSoTimeout(defaultTimeout);
-		} catch (SocketException e) {
-			System.out.println(localErrors[0]);
-			return -1;
+			fs = new FileOutputStream(localFile);
+			result = receive(serverIP,serverPort,fileName,fs,mode,monitor,Long.MAX_VALUE,dallier);
+		} catch (FileNotFoundException e) {
+			System.out.println(localErrors[1]);
+			result = -2;
 		}
+		if(result!=0)
+			localFile.delete();
+		monitor.finish(result);
+		traceEnd(event,monitor);
+		return result;
+	}
+
+	/**
+	 * Works like {@link #receiveFile(InetAddress, int, String, File, TransferMode, TransferMonitor)} but the file is written to a stream,
+	 * which is closed at the end of the transfer. If the transfer fails, the data already written is not removed.
+	 */
+	public static int receiveFile(InetAddress serverIP,int serverPort,String fileName,OutputStream out,TransferMode mode,TransferMonitor monitor){
+		return receiveFile(serverIP,serverPort,fileName,out,mode,monitor,Long.MAX_VALUE,null);
+	}
+
+	/**
+	 * Works like {@link #receiveFile(InetAddress, int, String, OutputStream, TransferMode, TransferMonitor)} with more control, for small files received in memory
+	 * @param maxBytes Maximum size of the file : a longer file is refused (error code -8) and the server is told so
+	 * @param dallier Executor waiting for a lost last ACK (see {@link #dally}) so the transfer returns as soon as the data is complete, null to wait before returning
+	 */
+	static int receiveFile(InetAddress serverIP,int serverPort,String fileName,OutputStream out,TransferMode mode,TransferMonitor monitor,long maxBytes,Executor dallier){
+		TransferEvents.TransferEnd event = traceStart("get",serverIP,serverPort,fileName,mode);
+		monitor.start(serverIP,serverPort);
+		int result = receive(serverIP,serverPort,fileName,out,mode,monitor,maxBytes,dallier);
+		monitor.finish(result);
+		traceEnd(event,monitor);
+		return result;
+	}
 
-		//Opening the local file
+	/**
+	 * Creates an empty file in the local/ directory named after the server file. If a file with this name already exists, a number is added : name(i).extension
+	 * The file is created right away so that transfers running at the same time never use the same file.
+	 */
+	static File newLocalFile(String fileName) {
 		File file = new File("local/"+fileName);
 		int i=0;
 		String[] nameSplit = fileName.split("[.]");
@@ -317,115 +686,747 @@ public class TFTPClient {
 			realName=nameSplit[nameSplit.length-2];
 			extension=nameSplit[nameSplit.length-1];
 		}
-		while(file.isFile())
-			file=new File("local/"+realName+"("+(i++)+")."+extension);
-		FileOutputStream fs;
 		try {
-			fs = new FileOutputStream(file);
-		} catch (FileNotFoundException e) {
-			System.out.println(localErrors[1]);
-			return -2;
+			while(!file.createNewFile())
+				file=new File("local/"+realName+"("+(i++)+")."+extension);
+		} catch (IOException e) {
+			//The local directory is missing or not writable, the error is reported when the file is opened
 		}
+		return file;
+	}
+
+	/**
+	 * Receives a file and writes it to fs, which is always closed
+	 */
+	private static int receive(InetAddress serverIP,int serverPort,String fileName,OutputStream fs,TransferMode mode,TransferMonitor monitor,long maxBytes,Executor dallier){
+		double time = System.currentTimeMillis();
+
+		//Creating the socket for the transmission
+		DatagramSocket sc;
+		try {
+			sc = new DatagramSocket();
+			sc.setSoTimeout(defaultTimeout);
+		} catch (SocketException e) {
+			System.out.println(localErrors[0]);
+			try{fs.close();}catch (IOException ignored){}
+			return -1;
+		}
+
+		if(mode==TransferMode.NETASCII)
+			fs = new NetasciiOutputStream(new BufferedOutputStream(fs));
 
 		System.out.println("\n--------------------");
-		System.out.println("Starting TFTP request for : \""+fileName+"\"");
+		System.out.println("Starting TFTP request for : \""+fileName+"\" ("+mode.value+")");
 
-		//Preparing to send the WRQ packet to the server
-		byte[] rrqMsg = createRRQ(fileName);
+		//Preparing to send the RRQ packet to the server
+		int requestedWindow = windowSize;
+		Map<String,String> options = new LinkedHashMap<>();
+		if(requestedWindow>1)
+			options.put("windowsize",String.valueOf(requestedWindow));
+		if(compression && maxBytes==Long.MAX_VALUE)
+			options.put("compress",compressionCodec);
+		byte[] rrqMsg = createRRQ(fileName,mode,options);
 		DatagramPacket dp = new DatagramPacket(rrqMsg,rrqMsg.length,serverIP,serverPort);
 
 		DatagramPacket resPacket;
 		try {
-			resPacket = sendReceive(sc,dp);
+			resPacket = sendReceive(sc,dp,monitor);
+			//A server refusing the options (RFC 2347) is asked again without them
+			if(!options.isEmpty() && resPacket.getData()[1]==opcode.ERROR.value && resPacket.getData()[3]==8){
+				System.out.println("The server refused the options, sending the request again without them.");
+				rrqMsg = createRRQ(fileName,mode);
+				dp = new DatagramPacket(rrqMsg,rrqMsg.length,serverIP,serverPort);
+				resPacket = sendReceive(sc,dp,monitor);
+			}
 		} catch (IOException e) {
-			System.out.println(localErrors[2]);
-			try{fs.close();}catch (Exception ignored){}
-			file.delete();
-			return -3;
+			int result = communicationError(sc,dp,monitor);
+			closeQuietly(fs,sc);
+			return result;
+		}
+
+		if(resPacket.getData()[1]==opcode.OACK.value){
+			serverPort=resPacket.getPort();
+			Map<String,String> accepted = parseOptions(resPacket);
+			int window;
+			try {
+				window = Integer.parseInt(accepted.getOrDefault("windowsize","1"));
+			} catch (NumberFormatException e) {
+				window = -1;
+			}
+			String codec = accepted.get("compress");
+			//The server can only lower the value of an option
+			if(window<1 || window>requestedWindow || (codec!=null && !codec.equalsIgnoreCase(compressionCodec)))
+				return invalidOptions(sc,fs,resPacket);
+			if(verbose)
+				System.out.println("Window of "+window+" blocks accepted by the server"+(codec!=null ? ", with compression" : ""));
+			if(codec!=null)
+				fs = inflate(fs);
+			return receiveWindows(sc,fs,serverIP,serverPort,fileName,window,monitor,maxBytes,dallier,time);
 		}
+
 		//Checking errors
 		if (checkError(fs, resPacket)){
-			file.delete();
+			closeQuietly(fs,sc);
 			return resPacket.getData()[3] + 1;
 		}
 
 		//Updating the communication port (--> the server attributes a port for each communication)
 		serverPort=resPacket.getPort();
 
-		//Creating the DATA packet
+		//The ACK packet and the reception buffer are built once and reused for every block
+		byte[] ackMsg = new byte[4];
+		BytesUtils.putShort(ackMsg,0,opcode.ACK.value);
+		dp = new DatagramPacket(ackMsg, ackMsg.length, serverIP, serverPort);
+		DatagramPacket rec = new DatagramPacket(new byte[516],516);
 		int blockN = 1;
-		boolean lastTime = resPacket.getLength()!=516;
-		do{
-			//Writing the data to the file
-			if (writeToFile(fs, resPacket, blockN)) return -4;
+		while(true){
+			if(monitor.getBytes()+resPacket.getLength()-4>maxBytes)
+				return tooLarge(sc,fs,dp);
+			//Writing the data to the file, straight from the packet
+			if (writeToFile(fs, resPacket, blockN)){
+				closeQuietly(fs,sc);
+				return -4;
+			}
+			monitor.block(resPacket.getLength()-4);
+			BytesUtils.putShort(ackMsg,2,blockN);
+			if(resPacket.getLength()<516)
+				break;
 
-			//Creating an ACK for the block and sending it to the server
-			byte[] dataMsg = createACK(blockN);
+			//Acknowledging the block and waiting for the next one
 			blockN++;
-			dp = new DatagramPacket(dataMsg, dataMsg.length, serverIP, serverPort);
-			if(lastTime){
-				try {
-					sc.send(dp);
-				} catch (IOException e) {
-					System.out.println(localErrors[2]);
-					try{fs.close();}catch (Exception ignored){}
-					return -3;
-				}
-				break;
-			}
 			try {
-				resPacket = sendReceive(sc, dp);
+				//The server sends the next block as soon as it gets the ACK, so the ACKs are paced according to the bandwidth limits
+				RateLimiter.acquire(serverIP,516,monitor);
+				if(monitor.shouldStop())
+					throw new IOException();
+				resPacket = receiveData(sc, dp, rec, blockN, monitor);
 			} catch (IOException e) {
-				System.out.println(localErrors[2]);
-				try{fs.close();}catch (Exception ignored){}
-				return -3;
+				int result = communicationError(sc,dp,monitor);
+				closeQuietly(fs,sc);
+				return result;
 			}
 
 			//Checking errors
-			if (checkError(fs, resPacket)) return resPacket.getData()[3] + 1;
-			if(resPacket.getLength()<516)
-				lastTime= true;
-		}while(resPacket.getLength()==516 || lastTime);
+			if (checkError(fs, resPacket)){
+				closeQuietly(fs,sc);
+				return resPacket.getData()[3] + 1;
+			}
+		}
 
-		//Terminating the communication
+		return complete(sc,fs,dp,rec,blockN,fileName,time,monitor,dallier);
+	}
+
+	/**
+	 * Receives the file window by window, once the server accepted the windowsize option (RFC 7440).
+	 * The blocks of a window may arrive in any order : they are kept in a {@link ReassemblyBuffer} and written as soon as the blocks
+	 * before them are written. The window is acknowledged once all its blocks arrived, if some are still missing after the timeout,
+	 * the highest block received in order is acknowledged and the server sends the next window from there.
+	 */
+	private static int receiveWindows(DatagramSocket sc, OutputStream fs, InetAddress serverIP, int serverPort, String fileName, int window,
+									  TransferMonitor monitor, long maxBytes, Executor dallier, double time) {
+		ReassemblyBuffer buffer = new ReassemblyBuffer(window);
+		//The ACK of the block 0 acknowledges the options
+		byte[] ackMsg = new byte[4];
+		BytesUtils.putShort(ackMsg,0,opcode.ACK.value);
+		DatagramPacket dp = new DatagramPacket(ackMsg, ackMsg.length, serverIP, serverPort);
+		DatagramPacket rec = new DatagramPacket(new byte[516],516);
+		byte[] recMsg = rec.getData();
+		//Last block acknowledged, the server sends the blocks up to acked+window
+		long acked = 0;
+		int tries = 0;
+		try {
+			long sent = System.nanoTime();
+			boolean waiting = true;
+			sc.send(dp);
+			while(!buffer.isComplete()){
+				rec.setLength(recMsg.length);
+				TransferEvents.BlockReceived received = new TransferEvents.BlockReceived();
+				received.begin();
+				TransferEvents.Timeout timeout = new TransferEvents.Timeout();
+				timeout.begin();
+				try{
+					sc.receive(rec);
+				}catch (SocketTimeoutException e){
+					traceTimeout(timeout,(int) acked,tries+1);
+					if(monitor.shouldStop())
+						throw new IOException();
+					if(tries==defaultReSend){
+						System.out.println("No response received in "+defaultReSend+" tries. Cancelling the communication.");
+						throw new IOException();
+					}
+					acked = buffer.getNext()-1;
+					BytesUtils.putShort(ackMsg,2,(int) acked);
+					System.out.println("Blocks missing after the #"+acked+" block, acknowledging it again.");
+					TransferEvents.retransmit((int) acked,"timeout");
+					sc.send(dp);
+					monitor.retransmit();
+					waiting = false;
+					tries++;
+					continue;
+				}
+				if(!isFromServer(rec,dp)){
+					rejectPacket(sc,rec);
+					continue;
+				}
+				if(recMsg[1]==opcode.OACK.value){
+					//Our ACK of the options was lost
+					if(acked==0)
+						sc.send(dp);
+					continue;
+				}
+				if(checkError(fs,rec)){
+					closeQuietly(fs,sc);
+					return recMsg[3]+1;
+				}
+				int offset = buffer.offset(BytesUtils.getShort(recMsg,2));
+				//A block already written or received (e.g. the server sent the window again) is ignored
+				if(offset<0 || !buffer.put(offset,recMsg,4,rec.getLength()-4))
+					continue;
+				received.end();
+				if(received.shouldCommit()){
+					received.block=(int) (buffer.getNext()+offset);
+					received.bytes=rec.getLength()-4;
+					received.commit();
+				}
+				if(waiting){
+					monitor.rtt(System.nanoTime()-sent);
+					waiting = false;
+				}
+				tries = 0;
+
+				//Writing the blocks received in order
+				int length;
+				while((length=buffer.nextLength())>=0){
+					if(monitor.getBytes()+length>maxBytes)
+						return tooLarge(sc,fs,dp);
+					if(verbose)
+						System.out.println("\nWriting the #" + buffer.getNext() + " block of " + length + " bytes");
+					TransferEvents.DiskWrite write = new TransferEvents.DiskWrite();
+					write.begin();
+					try {
+						buffer.writeNext(fs);
+					} catch (IOException e) {
+						System.out.println(localErrors[3]);
+						closeQuietly(fs,sc);
+						return -4;
+					}
+					traceWrite(write,length);
+					monitor.block(length);
+				}
+
+				//Acknowledging a whole window so the server sends the next one
+				if(!buffer.isComplete() && buffer.getNext()-1>=acked+window){
+					acked = buffer.getNext()-1;
+					BytesUtils.putShort(ackMsg,2,(int) acked);
+					RateLimiter.acquire(serverIP,516*window,monitor);
+					if(monitor.shouldStop())
+						throw new IOException();
+					sent = System.nanoTime();
+					waiting = true;
+					sc.send(dp);
+				}
+			}
+		} catch (IOException e) {
+			int result = communicationError(sc,dp,monitor);
+			closeQuietly(fs,sc);
+			return result;
+		}
+		int blockN = (int) (buffer.getNext()-1);
+		BytesUtils.putShort(ackMsg,2,blockN);
+		return complete(sc,fs,dp,rec,blockN,fileName,time,monitor,dallier);
+	}
+
+	/**
+	 * Ends a transfer whose options were acknowledged with values that were not asked for
+	 * @return the error code of a refused option
+	 */
+	private static int invalidOptions(DatagramSocket sc, Closeable fs, DatagramPacket oack) {
+		System.out.println("Invalid option acknowledgement from the server : "+parseOptions(oack));
+		byte[] errMsg = createError(8);
+		try {
+			sc.send(new DatagramPacket(errMsg,errMsg.length,oack.getAddress(),oack.getPort()));
+		} catch (IOException ignored) {}
+		closeQuietly(fs,sc);
+		return 9;
+	}
+
+	/**
+	 * Decompresses the data of a compressed reception before it is written. Closing the stream fails if the compressed data is incomplete.
+	 */
+	private static OutputStream inflate(OutputStream fs) {
+		Inflater inflater = new Inflater();
+		return new InflaterOutputStream(fs,inflater) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+					if(!inflater.finished())
+						throw new EOFException("The compressed data is incomplete");
+				} finally {
+					inflater.end();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Refuses a file longer than the maximum size allowed and tells the server
+	 */
+	private static int tooLarge(DatagramSocket sc, OutputStream fs, DatagramPacket lastSent) {
+		System.out.println(localErrors[7]);
+		byte[] errMsg = createError(3);
+		try {
+			sc.send(new DatagramPacket(errMsg,errMsg.length,lastSent.getAddress(),lastSent.getPort()));
+		} catch (IOException ignored) {}
+		closeQuietly(fs,sc);
+		return -8;
+	}
+
+	/**
+	 * Terminates a reception : sends the last ACK, closes the file and keeps the socket open for a while in case this ACK is lost
+	 * @param ack ACK of the last block
+	 * @param dallier see {@link #receiveFile(InetAddress, int, String, OutputStream, TransferMode, TransferMonitor, long, Executor)}
+	 */
+	private static int complete(DatagramSocket sc, OutputStream fs, DatagramPacket ack, DatagramPacket rec, int blockN, String fileName, double time, TransferMonitor monitor, Executor dallier) {
+		try {
+			sc.send(ack);
+		} catch (IOException e) {
+			System.out.println(localErrors[2]);
+			closeQuietly(fs,sc);
+			return -3;
+		}
 		try {
 			fs.close();
 		} catch (IOException e) {
 			System.out.println(localErrors[4]);
+			closeQuietly(fs,sc);
 			return -5;
 		}
-		sc.close();
+		monitor.dataEnd();
 		System.out.println("File \""+fileName+"\" retrieved successfully in "+(System.currentTimeMillis()-time)+"ms.");
 		System.out.println("--------------------\n");
+
+		//The file is complete, the socket is only kept to acknowledge the last block again if our ACK was lost
+		Runnable dallying = () -> {
+			try {
+				dally(sc, ack, rec, blockN);
+			} catch (IOException ignored) {}
+			sc.close();
+		};
+		if(dallier!=null)
+			dallier.execute(dallying);
+		else
+			dallying.run();
 		return 0;
 	}
 
-	private static boolean checkError(FileOutputStream fs, DatagramPacket resPacket) {
+	/**
+	 * Acknowledges the last block received and waits for the next one. If the server sends the previous block again (i.e. our ACK was lost), it is acknowledged again.
+	 * Packets coming from another address/port than the server's are answered with an "Unknown transfer ID" error.
+	 * @param ack ACK of the previous block
+	 * @param rec Reception packet, reused for every block
+	 * @param blockN Number of the expected block
+	 * @param monitor Monitor of the transfer, the wait is stopped if it is cancelled
+	 * @return the expected DATA packet or an ERROR packet
+	 */
+	private static DatagramPacket receiveData(DatagramSocket sc, DatagramPacket ack, DatagramPacket rec, int blockN, TransferMonitor monitor) throws IOException {
+		byte[] recMsg = rec.getData();
+		TransferEvents.BlockReceived event = new TransferEvents.BlockReceived();
+		event.begin();
+		long sent = System.nanoTime();
+		sc.send(ack);
+		int i=0;
+		while(true){
+			rec.setLength(recMsg.length);
+			TransferEvents.Timeout timeout = new TransferEvents.Timeout();
+			timeout.begin();
+			try{
+				sc.receive(rec);
+			}catch (SocketTimeoutException e){
+				traceTimeout(timeout,blockN-1,i+1);
+				if(monitor.shouldStop())
+					throw new IOException();
+				if(i==defaultReSend){
+					System.out.println("No response received in "+defaultReSend+" tries. Cancelling the communication.");
+					throw new IOException();
+				}
+				System.out.println("No response from the server, re-sending the packet.");
+				TransferEvents.retransmit(blockN-1,"timeout");
+				event.begin();
+				sc.send(ack);
+				monitor.retransmit();
+				i++;
+				continue;
+			}
+			if(!isFromServer(rec,ack)){
+				rejectPacket(sc,rec);
+				continue;
+			}
+			if(recMsg[1]==opcode.DATA.value && BytesUtils.getShort(recMsg,2)!=(blockN&0xffff)){
+				if(BytesUtils.getShort(recMsg,2)==((blockN-1)&0xffff)){
+					System.out.println("The #"+(blockN-1)+" block was sent again, re-sending its ACK.");
+					TransferEvents.retransmit(blockN-1,"duplicate");
+					sc.send(ack);
+					monitor.retransmit();
+				}
+				continue;
+			}
+			if(i==0)
+				monitor.rtt(System.nanoTime()-sent);
+			event.end();
+			if(event.shouldCommit() && recMsg[1]==opcode.DATA.value){
+				event.block=blockN;
+				event.bytes=rec.getLength()-4;
+				event.commit();
+			}
+			return rec;
+		}
+	}
+
+	/**
+	 * Waits during {@link #defaultDally} after the last ACK was sent, as the RFC requires : if the server did not receive it, it sends the last block again and we acknowledge it again.
+	 * Otherwise the server would time out on a transfer that actually succeeded.
+	 */
+	private static void dally(DatagramSocket sc, DatagramPacket ack, DatagramPacket rec, int blockN) throws IOException {
+		byte[] recMsg = rec.getData();
+		long end = System.currentTimeMillis()+defaultDally;
+		long remaining;
+		while((remaining=end-System.currentTimeMillis())>0){
+			sc.setSoTimeout((int) remaining);
+			rec.setLength(recMsg.length);
+			try{
+				sc.receive(rec);
+			}catch (SocketTimeoutException e){
+				return;
+			}
+			if(!isFromServer(rec,ack))
+				rejectPacket(sc,rec);
+			else if(recMsg[1]==opcode.DATA.value && BytesUtils.getShort(recMsg,2)==(blockN&0xffff)){
+				System.out.println("The last block was sent again, re-sending its ACK.");
+				sc.send(ack);
+			}
+		}
+	}
+
+	private static boolean isFromServer(DatagramPacket rec, DatagramPacket lastSent) {
+		return rec.getPort()==lastSent.getPort() && rec.getAddress().equals(lastSent.getAddress());
+	}
+
+	/**
+	 * Answers a packet that does not belong to the transfer (RFC 1350 : the transfer itself is not interrupted)
+	 */
+	private static void rejectPacket(DatagramSocket sc, DatagramPacket rec) throws IOException {
+		byte[] errMsg = createError(5);
+		sc.send(new DatagramPacket(errMsg,errMsg.length,rec.getAddress(),rec.getPort()));
+	}
+
+	private static boolean checkError(OutputStream fs, DatagramPacket resPacket) {
 		if (resPacket.getData()[1] != opcode.DATA.value) {
 			try{
 				throwError(resPacket.getData());
 			}catch (TFTPException e){
 				System.out.println(e.getMessage());
-				try{fs.close();}catch (Exception ignored){}
 				return true;
 			}
 		}
 		return false;
 	}
 
-	private static boolean writeToFile(FileOutputStream fs, DatagramPacket resPacket, int blockN) {
-		byte[] fileData;
-		fileData = getDATA(resPacket.getData());
-		System.out.println("\nWriting the #" + blockN + " block of " + fileData.length + " bytes");
+	private static boolean writeToFile(OutputStream fs, DatagramPacket resPacket, int blockN) {
+		int dataLength = resPacket.getLength()-4;
+		if(verbose)
+			System.out.println("\nWriting the #" + blockN + " block of " + dataLength + " bytes");
+		TransferEvents.DiskWrite event = new TransferEvents.DiskWrite();
+		event.begin();
 		try {
-			fs.write(fileData, 0, 512);
+			fs.write(resPacket.getData(), resPacket.getOffset()+4, dataLength);
 		} catch (IOException e) {
 			System.out.println(localErrors[3]);
 			return true;
 		}
+		traceWrite(event,dataLength);
 		return false;
 	}
 
+	private static void traceWrite(TransferEvents.DiskWrite event, int length) {
+		event.end();
+		if(event.shouldCommit()){
+			event.bytes=length;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Receives a file in octet mode with the multicast option (RFC 2090), written to the local/ directory
+	 * @see #receiveFileMulticast(InetAddress, int, String, File, TransferMonitor)
+	 */
+	public static int receiveFileMulticast(InetAddress serverIP,int serverPort,String fileName){
+		return receiveFileMulticast(serverIP,serverPort,fileName,newLocalFile(fileName),new TransferMonitor());
+	}
+
+	/**
+	 * Receives a file in octet mode with the multicast option (RFC 2090) : when many clients want the same file at the same time,
+	 * the server sends each block once to a multicast group instead of once per client.
+	 * <p>
+	 * The client joins the group given by the server and writes every block it hears, in any order. Only the master client
+	 * (chosen by the server) acknowledges the blocks ; the other ones listen until the server makes them master, they then ask for
+	 * the first block they are missing. The blocks received are tracked in a {@link BlockSet}.
+	 * If the server does not support the option, the file is received normally.
+	 * @return same values as {@link #sendFile(InetAddress, int, String)}
+	 */
+	public static int receiveFileMulticast(InetAddress serverIP,int serverPort,String fileName,File localFile,TransferMonitor monitor){
+		TransferEvents.TransferEnd event = traceStart("get",serverIP,serverPort,fileName,TransferMode.OCTET);
+		monitor.start(serverIP,serverPort);
+		int result = receiveMulticast(serverIP,serverPort,fileName,localFile,monitor);
+		if(result==Integer.MIN_VALUE){
+			System.out.println("The server does not support multicast, receiving the file normally.");
+			OutputStream fs;
+			try {
+				fs = new FileOutputStream(localFile);
+				result = receive(serverIP,serverPort,fileName,fs,TransferMode.OCTET,monitor,Long.MAX_VALUE,null);
+			} catch (FileNotFoundException e) {
+				System.out.println(localErrors[1]);
+				result = -2;
+			}
+		}
+		if(result!=0)
+			localFile.delete();
+		monitor.finish(result);
+		traceEnd(event,monitor);
+		return result;
+	}
+
+	/**
+	 * @return same values as {@link #sendFile(InetAddress, int, String)}, or Integer.MIN_VALUE if the server ignored the multicast option
+	 */
+	private static int receiveMulticast(InetAddress serverIP,int serverPort,String fileName,File file,TransferMonitor monitor){
+		double time = System.currentTimeMillis();
+		DatagramChannel unicast;
+		FileChannel fs;
+		try {
+			unicast = DatagramChannel.open();
+			unicast.bind(null);
+		} catch (IOException e) {
+			System.out.println(localErrors[0]);
+			return -1;
+		}
+		try {
+			fs = FileChannel.open(file.toPath(),StandardOpenOption.WRITE,StandardOpenOption.CREATE,StandardOpenOption.TRUNCATE_EXISTING);
+		} catch (IOException e) {
+			System.out.println(localErrors[1]);
+			closeQuietly(unicast,null);
+			return -2;
+		}
+		DatagramChannel group = null;
+		Selector selector = null;
+
+		System.out.println("\n--------------------");
+		System.out.println("Starting TFTP multicast request for : \""+fileName+"\"");
+
+		DatagramSocket sc = unicast.socket();
+		byte[] recMsg = new byte[516];
+		DatagramPacket rec = new DatagramPacket(recMsg,516);
+		try {
+			//The option has no value in the request, the server answers with "address,port,master"
+			Map<String,String> options = new LinkedHashMap<>();
+			options.put("multicast","");
+			byte[] rrqMsg = createRRQ(fileName,TransferMode.OCTET,options);
+			DatagramPacket dp = new DatagramPacket(rrqMsg,rrqMsg.length,serverIP,serverPort);
+			sc.setSoTimeout(defaultTimeout);
+			DatagramPacket resPacket;
+			try {
+				resPacket = sendReceive(sc,dp,monitor);
+			} catch (IOException e) {
+				return communicationError(sc,dp,monitor);
+			}
+			if(resPacket.getData()[1]==opcode.ERROR.value && resPacket.getData()[3]==8)
+				return Integer.MIN_VALUE;
+			if(resPacket.getData()[1]==opcode.ERROR.value)
+				return serverError(resPacket);
+			String multicast = resPacket.getData()[1]==opcode.OACK.value ? parseOptions(resPacket).get("multicast") : null;
+			if(multicast==null){
+				//The server ignored the option and started a normal transfer, which is stopped
+				byte[] errMsg = createError(8);
+				sc.send(new DatagramPacket(errMsg,errMsg.length,resPacket.getAddress(),resPacket.getPort()));
+				return Integer.MIN_VALUE;
+			}
+			String[] fields = multicast.split(",",-1);
+			InetAddress groupIP = null;
+			int groupPort = 0;
+			if(fields.length==3 && !fields[0].isEmpty() && !fields[1].isEmpty()){
+				try {
+					groupIP = InetAddress.getByName(fields[0]);
+					groupPort = Integer.parseInt(fields[1]);
+				} catch (UnknownHostException | NumberFormatException ignored) {}
+			}
+			if(groupIP==null || !groupIP.isMulticastAddress() || groupPort<1 || groupPort>65535){
+				System.out.println("Invalid multicast option from the server : "+multicast);
+				byte[] errMsg = createError(8);
+				sc.send(new DatagramPacket(errMsg,errMsg.length,resPacket.getAddress(),resPacket.getPort()));
+				return 9;
+			}
+			boolean master = fields[2].equals("1");
+
+			//The group is joined on the interface used to reach the server
+			InetSocketAddress server = new InetSocketAddress(resPacket.getAddress(),resPacket.getPort());
+			NetworkInterface itf;
+			try (DatagramSocket probe = new DatagramSocket()) {
+				probe.connect(serverIP,serverPort);
+				itf = NetworkInterface.getByInetAddress(probe.getLocalAddress());
+			}
+			if(itf==null){
+				//No interface to join the group on, the file is received by a normal transfer
+				System.out.println("No multicast interface to reach the server, the option is refused");
+				byte[] errMsg = createError(8);
+				sc.send(new DatagramPacket(errMsg,errMsg.length,resPacket.getAddress(),resPacket.getPort()));
+				return Integer.MIN_VALUE;
+			}
+			group = DatagramChannel.open(groupIP instanceof Inet6Address ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET)
+					.setOption(StandardSocketOptions.SO_REUSEADDR,true)
+					.bind(new InetSocketAddress(groupPort));
+			group.join(groupIP,itf);
+			System.out.println("Joined the multicast group "+groupIP.getHostAddress()+":"+groupPort+(master ? " as the master client" : ""));
+
+			selector = Selector.open();
+			unicast.configureBlocking(false);
+			group.configureBlocking(false);
+			unicast.register(selector,SelectionKey.OP_READ);
+			group.register(selector,SelectionKey.OP_READ);
+
+			byte[] ackMsg = new byte[4];
+			BytesUtils.putShort(ackMsg,0,opcode.ACK.value);
+			ByteBuffer ack = ByteBuffer.wrap(ackMsg);
+			ByteBuffer packet = ByteBuffer.wrap(recMsg);
+			BlockSet received = new BlockSet();
+			//Number of the last block (shorter than 512 bytes), 0 while it is not known
+			long lastBlock = 0;
+			//Highest block received, to find the number of the next ones after the 16 bits numbers roll over
+			long highest = 0;
+			int timeouts = 0;
+			if(master)
+				sendAck(unicast,ack,0,server,monitor);
+
+			while(lastBlock==0 || received.getFirstMissing()<=lastBlock){
+				if(monitor.shouldStop())
+					return communicationError(blocking(unicast,selector),new DatagramPacket(ackMsg,4,server),monitor);
+				TransferEvents.Timeout timeout = new TransferEvents.Timeout();
+				timeout.begin();
+				if(selector.select(defaultTimeout)==0){
+					traceTimeout(timeout,(int) (received.getFirstMissing()-1),timeouts+1);
+					timeouts++;
+					//A passive client waits while the server serves the other clients, but not forever
+					if(timeouts>(master ? defaultReSend : passiveTimeouts)){
+						System.out.println("No response received in "+timeouts+" tries. Cancelling the communication.");
+						return communicationError(blocking(unicast,selector),new DatagramPacket(ackMsg,4,server),monitor);
+					}
+					if(master){
+						System.out.println("No response from the server, asking for the #"+received.getFirstMissing()+" block again.");
+						TransferEvents.retransmit((int) received.getFirstMissing()-1,"timeout");
+						sendAck(unicast,ack,received.getFirstMissing()-1,server,monitor);
+						monitor.retransmit();
+					}
+					continue;
+				}
+				for(SelectionKey key : selector.selectedKeys()){
+					DatagramChannel channel = (DatagramChannel) key.channel();
+					SocketAddress from;
+					packet.clear();
+					while((from=channel.receive(packet))!=null){
+						int length = packet.position();
+						packet.clear();
+						if(length<4 || !((InetSocketAddress) from).getAddress().equals(server.getAddress()))
+							continue;
+						timeouts = 0;
+						if(recMsg[1]==opcode.ERROR.value){
+							rec.setLength(length);
+							return serverError(rec);
+						}
+						if(recMsg[1]==opcode.OACK.value){
+							rec.setLength(length);
+							String value = parseOptions(rec).get("multicast");
+							boolean wasMaster = master;
+							master = value!=null && value.endsWith(",1");
+							if(master && !wasMaster)
+								System.out.println("Promoted to master client, asking for the #"+received.getFirstMissing()+" block.");
+							if(master)
+								sendAck(unicast,ack,received.getFirstMissing()-1,server,monitor);
+							continue;
+						}
+						if(recMsg[1]!=opcode.DATA.value)
+							continue;
+						//Number of the block closest to the highest one received
+						int number = BytesUtils.getShort(recMsg,2);
+						long block = highest==0 ? number : highest+(short) (number-(int) highest);
+						if(block>=1 && received.add(block)){
+							highest = Math.max(highest,block);
+							TransferEvents.DiskWrite write = new TransferEvents.DiskWrite();
+							write.begin();
+							fs.write(ByteBuffer.wrap(recMsg,4,length-4),(block-1)*512);
+							traceWrite(write,length-4);
+							monitor.block(length-4);
+							if(length<516)
+								lastBlock = block;
+							if(verbose)
+								System.out.println("\nWriting the #" + block + " block of " + (length-4) + " bytes");
+						}
+						//The master acknowledges the blocks received in a row, the server then sends the next ones
+						if(master)
+							sendAck(unicast,ack,received.getFirstMissing()-1,server,monitor);
+					}
+				}
+				selector.selectedKeys().clear();
+			}
+
+			//A passive client also tells the server it has the whole file, so the server does not make it master later
+			BytesUtils.putShort(ackMsg,2,(int) lastBlock);
+			unicast.send(ByteBuffer.wrap(ackMsg),server);
+			fs.close();
+			monitor.dataEnd();
+			System.out.println("File \""+fileName+"\" retrieved successfully in "+(System.currentTimeMillis()-time)+"ms.");
+			System.out.println("--------------------\n");
+			if(master){
+				//The socket is kept to acknowledge the last block again if our ACK was lost
+				dally(blocking(unicast,selector),new DatagramPacket(ackMsg,4,server),rec,(int) lastBlock);
+			}
+			return 0;
+		} catch (IOException | NumberFormatException e) {
+			System.out.println(localErrors[2]);
+			return -3;
+		} finally {
+			closeQuietly(fs,null);
+			closeQuietly(selector,null);
+			closeQuietly(group,null);
+			closeQuietly(unicast,null);
+		}
+	}
+
+	/**
+	 * Puts the unicast channel of a multicast transfer back in blocking mode, to use it as a socket again
+	 */
+	private static DatagramSocket blocking(DatagramChannel unicast, Selector selector) throws IOException {
+		selector.close();
+		unicast.configureBlocking(true);
+		return unicast.socket();
+	}
+
+	/**
+	 * Acknowledges a block of a multicast transfer, the ACKs of the master client are paced according to the bandwidth limits
+	 */
+	private static void sendAck(DatagramChannel unicast, ByteBuffer ack, long blockN, InetSocketAddress server, TransferMonitor monitor) throws IOException {
+		RateLimiter.acquire(server.getAddress(),516,monitor);
+		BytesUtils.putShort(ack.array(),2,(int) blockN);
+		ack.clear();
+		unicast.send(ack,server);
+	}
+
+	/**
+	 * Works like {@link #receiveFile(InetAddress, int, String, TransferMode)} but the address is {@link #defaultIP} i.e. the address at localhost
+	 * @see #receiveFile(InetAddress, int, String, TransferMode)
+	 */
+	public static int receiveFile(int serverPort,String filePath,TransferMode mode){
+		return receiveFile(defaultIP,serverPort,filePath,mode);
+	}
+
 	/**
 	 * Works like {@link #receiveFile(InetAddress, int, String)} but the address is {@link #defaultIP} i.e. the address at localhost
 	 * @see #receiveFile(InetAddress, int, String)
@@ -442,9 +1443,4 @@ public class TFTPClient {
 		return receiveFile(defaultIP,defaultServerPort,filePath);
 	}
 
-	private static byte[] getDATA(byte[] data) {
-		return Arrays.copyOfRange(data,4,data.length);
-	}
-
-
 }
@@ -0,0 +1,80 @@
+package com.tftpclient;
+
+/**
+ * A token bucket limiting a flow of bytes to a rate, see {@link RateLimiter}.
+ * <p>
+ * The bucket only holds a small burst (a few packets by default) so the packets are spaced out at the given rate instead of being sent in bursts.
+ * A reservation can go below zero : the caller then waits until the bucket is refilled, which also makes the threads sharing a bucket
+ * take turns. The rate can be changed at any time : a caller asks again how long it must still wait (see {@link #waitTime(long)}),
+ * so the new rate also applies to the bytes already reserved.
+ */
+public class TokenBucket {
+	//The bucket holds at least 2 packets, or 20ms of transfer at high rates
+	private static final int minBurst = 2*516;
+	private static final double burstTime = 0.02;
+
+	private double rate;
+	private double burst;
+	private double tokens;
+	//Total number of bytes reserved, the reservations are numbered by this count
+	private long reserved;
+	private long last = System.nanoTime();
+
+	/**
+	 * @param bytesPerSecond Rate of the bucket, 0 or less for no limit
+	 */
+	public TokenBucket(long bytesPerSecond) {
+		setRate(bytesPerSecond);
+		tokens=burst;
+	}
+
+	/**
+	 * Changes the rate of the bucket, 0 or less to remove the limit. The callers waiting use the new rate for the rest of their wait.
+	 */
+	public synchronized void setRate(long bytesPerSecond) {
+		refill(System.nanoTime());
+		rate=Math.max(0,bytesPerSecond);
+		burst=Math.max(minBurst,rate*burstTime);
+		//Without limit, nothing is owed anymore
+		tokens = rate==0 ? burst : Math.min(tokens,burst);
+	}
+
+	/**
+	 * @return the rate of the bucket in bytes per second, 0 if there is no limit
+	 */
+	public synchronized long getRate() {
+		return (long) rate;
+	}
+
+	/**
+	 * Takes the given number of bytes from the bucket
+	 * @return the reservation, to give to {@link #waitTime(long)}
+	 */
+	public synchronized long reserve(int bytes) {
+		if(rate>0){
+			refill(System.nanoTime());
+			tokens-=bytes;
+		}
+		reserved+=bytes;
+		return reserved;
+	}
+
+	/**
+	 * @param reservation Value returned by {@link #reserve(int)}
+	 * @return the time to wait before sending the bytes of the reservation with the current rate, in nanoseconds
+	 */
+	public synchronized long waitTime(long reservation) {
+		if(rate==0)
+			return 0;
+		refill(System.nanoTime());
+		//The reservations made after this one do not delay it
+		double balance = tokens+(reserved-reservation);
+		return balance>=0 ? 0 : (long) (-balance/rate*1e9);
+	}
+
+	private void refill(long now) {
+		if(rate>0)
+			tokens=Math.min(burst,tokens+(now-last)*rate/1e9);
+		last=now;
+	}
+}
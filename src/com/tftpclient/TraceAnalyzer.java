@@ -0,0 +1,171 @@
+package com.tftpclient;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Summarizes a flight recording of transfers (see {@link TransferEvents}) : where the time of the transfers went and the slowest transfers.
+ * <p>
+ * Usage : TraceAnalyzer recording.jfr [number of slow transfers to list]
+ */
+public class TraceAnalyzer {
+	private static final String prefix = "com.tftpclient.";
+	//Categories of the time breakdown, the names of the events measuring them
+	private static final String[] categories = {"DiskRead","DiskWrite","BlockSent","AckReceived","BlockReceived","Timeout"};
+	private static final String[] labels = {"Reading the files","Writing the files","Sending the blocks","Waiting for the ACKs",
+			"Waiting for the blocks","Timeouts (no answer)"};
+	private static final int defaultSlowest = 10;
+
+	/**
+	 * A transfer of the recording and the time of its events in each category
+	 */
+	private static class Transfer {
+		final RecordedEvent event;
+		final Instant start;
+		final Instant end;
+		final long[] time = new long[categories.length];
+		int retransmits;
+
+		Transfer(RecordedEvent event) {
+			this.event=event;
+			this.start=event.getStartTime();
+			this.end=event.getEndTime();
+		}
+
+		long duration() {
+			return Duration.between(start,end).toNanos();
+		}
+
+		long other() {
+			long other = duration();
+			for(long t : time)
+				other-=t;
+			return Math.max(0,other);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length<1 || args.length>2){
+			System.err.println("Usage : TraceAnalyzer <recording.jfr> [number of slow transfers to list]");
+			System.exit(2);
+		}
+		int slowest = args.length>1 ? Integer.parseInt(args[1]) : defaultSlowest;
+		List<RecordedEvent> events = RecordingFile.readAllEvents(Paths.get(args[0]));
+
+		//The transfers of each thread, by start time
+		Map<Long,List<Transfer>> transfers = new HashMap<>();
+		List<Transfer> all = new ArrayList<>();
+		for(RecordedEvent event : events){
+			if(name(event).equals("TransferEnd")){
+				Transfer transfer = new Transfer(event);
+				transfers.computeIfAbsent(threadId(event),k -> new ArrayList<>()).add(transfer);
+				all.add(transfer);
+			}
+		}
+		if(all.isEmpty()){
+			System.out.println("No transfer in this recording. Was it started with -XX:StartFlightRecording ?");
+			return;
+		}
+		for(List<Transfer> list : transfers.values())
+			list.sort(Comparator.comparing(t -> t.start));
+
+		Map<String,Integer> retransmits = new TreeMap<>();
+		for(RecordedEvent event : events){
+			String name = name(event);
+			int category = Arrays.asList(categories).indexOf(name);
+			if(category<0 && !name.equals("Retransmit"))
+				continue;
+			Transfer transfer = find(transfers.get(threadId(event)),event.getStartTime());
+			if(name.equals("Retransmit")){
+				retransmits.merge(event.getString("reason"),1,Integer::sum);
+				if(transfer!=null)
+					transfer.retransmits++;
+			}
+			else if(transfer!=null)
+				transfer.time[category]+=event.getDuration().toNanos();
+		}
+
+		long total = 0;
+		long bytes = 0;
+		int failed = 0;
+		long[] time = new long[categories.length];
+		long other = 0;
+		for(Transfer transfer : all){
+			total+=transfer.duration();
+			bytes+=transfer.event.getLong("bytes");
+			if(transfer.event.getInt("result")!=0)
+				failed++;
+			for(int i=0;i<time.length;i++)
+				time[i]+=transfer.time[i];
+			other+=transfer.other();
+		}
+
+		System.out.printf(Locale.ROOT,"%d transfer(s), %d failed, %d bytes in %.1f ms (sum of the transfer durations)%n",all.size(),failed,bytes,total/1e6);
+		System.out.println();
+		System.out.println("Time breakdown :");
+		for(int i=0;i<categories.length;i++)
+			printTime(labels[i],time[i],total);
+		printTime("Other (encoding, rate limits, dally...)",other,total);
+		if(!retransmits.isEmpty()){
+			System.out.println();
+			System.out.println("Retransmits : "+retransmits);
+		}
+
+		all.sort(Comparator.comparingLong(Transfer::duration).reversed());
+		System.out.println();
+		System.out.println("Slowest transfers :");
+		for(Transfer transfer : all.subList(0,Math.min(slowest,all.size()))){
+			RecordedEvent event = transfer.event;
+			System.out.printf(Locale.ROOT,"  %s %s (%s) : %.1f ms, %d bytes, result %d, %d retransmit(s)%n",event.getString("operation"),
+					event.getString("file"),event.getString("server"),transfer.duration()/1e6,event.getLong("bytes"),event.getInt("result"),transfer.retransmits);
+			StringBuilder sb = new StringBuilder("    ");
+			for(int i=0;i<categories.length;i++)
+				if(transfer.time[i]>0)
+					sb.append(String.format(Locale.ROOT,"%s %.1f ms, ",categories[i],transfer.time[i]/1e6));
+			sb.append(String.format(Locale.ROOT,"other %.1f ms",transfer.other()/1e6));
+			System.out.println(sb);
+		}
+	}
+
+	private static void printTime(String label, long nanos, long total) {
+		System.out.printf(Locale.ROOT,"  %-42s %10.1f ms %5.1f%%%n",label,nanos/1e6,total==0 ? 0 : 100.0*nanos/total);
+	}
+
+	private static String name(RecordedEvent event) {
+		String name = event.getEventType().getName();
+		return name.startsWith(prefix) ? name.substring(prefix.length()) : "";
+	}
+
+	private static long threadId(RecordedEvent event) {
+		RecordedThread thread = event.getThread();
+		return thread==null ? -1 : thread.getJavaThreadId();
+	}
+
+	/**
+	 * @return the transfer running when the event started, null if there is none
+	 */
+	private static Transfer find(List<Transfer> transfers, Instant time) {
+		if(transfers==null)
+			return null;
+		int low = 0;
+		int high = transfers.size()-1;
+		Transfer found = null;
+		while(low<=high){
+			int mid = (low+high)>>>1;
+			if(transfers.get(mid).start.isAfter(time))
+				high=mid-1;
+			else{
+				found=transfers.get(mid);
+				low=mid+1;
+			}
+		}
+		return found!=null && !found.end.isBefore(time) ? found : null;
+	}
+}
@@ -0,0 +1,10 @@
+package com.tftpclient;
+
+/**
+ * The transfer was cancelled before its end
+ */
+public class TransferCancelledException extends TransferFailedException {
+	public TransferCancelledException(TransferResult result) {
+		super(result);
+	}
+}
@@ -0,0 +1,160 @@
+package com.tftpclient;
+
+import jdk.jfr.*;
+
+/**
+ * JDK Flight Recorder events of the transfers, to find where the time of a slow transfer goes (disk, socket waits, timeouts...).
+ * <p>
+ * They are recorded when the JVM is started with e.g. {@code -XX:StartFlightRecording=filename=tftp.jfr} and can be summarized with
+ * {@link TraceAnalyzer}. While no recording runs, the events are not instrumented and cost close to nothing.
+ * Events are committed by the thread running the transfer, so the events of a transfer are the ones of its thread
+ * during its {@link TransferEnd} event.
+ */
+public final class TransferEvents {
+	private TransferEvents() {}
+
+	@Name("com.tftpclient.TransferStart")
+	@Label("Transfer Start")
+	@Category("TFTP")
+	@StackTrace(false)
+	public static class TransferStart extends Event {
+		@Label("Operation")
+		public String operation;
+		@Label("Server")
+		public String server;
+		@Label("File")
+		public String file;
+		@Label("Mode")
+		public String mode;
+	}
+
+	/**
+	 * Lasts from the beginning to the end of the transfer
+	 */
+	@Name("com.tftpclient.TransferEnd")
+	@Label("Transfer")
+	@Category("TFTP")
+	@StackTrace(false)
+	public static class TransferEnd extends Event {
+		@Label("Operation")
+		public String operation;
+		@Label("Server")
+		public String server;
+		@Label("File")
+		public String file;
+		@Label("Result")
+		@Description("Value returned by the transfer, see TFTPClient.getErrorMessage")
+		public int result;
+		@Label("Bytes")
+		@DataAmount
+		public long bytes;
+		@Label("Blocks")
+		public int blocks;
+		@Label("Retransmits")
+		public int retransmits;
+	}
+
+	/**
+	 * Lasts while a DATA packet is handed to the socket
+	 */
+	@Name("com.tftpclient.BlockSent")
+	@Label("Block Sent")
+	@Category("TFTP")
+	@StackTrace(false)
+	public static class BlockSent extends Event {
+		@Label("Block")
+		public int block;
+		@Label("Bytes")
+		@DataAmount
+		public int bytes;
+	}
+
+	/**
+	 * Lasts from the (last) sending of a packet, once handed to the socket, to the reception of its ACK
+	 */
+	@Name("com.tftpclient.AckReceived")
+	@Label("ACK Received")
+	@Category("TFTP")
+	@StackTrace(false)
+	public static class AckReceived extends Event {
+		@Label("Block")
+		public int block;
+	}
+
+	/**
+	 * Lasts from the (last) sending of an ACK (or of the request) to the reception of the next block
+	 */
+	@Name("com.tftpclient.BlockReceived")
+	@Label("Block Received")
+	@Category("TFTP")
+	@StackTrace(false)
+	public static class BlockReceived extends Event {
+		@Label("Block")
+		public int block;
+		@Label("Bytes")
+		@DataAmount
+		public int bytes;
+	}
+
+	/**
+	 * Lasts while waiting for an answer that never came
+	 */
+	@Name("com.tftpclient.Timeout")
+	@Label("Timeout")
+	@Category("TFTP")
+	@StackTrace(false)
+	public static class Timeout extends Event {
+		@Label("Block")
+		@Description("Number of the last block sent or acknowledged")
+		public int block;
+		@Label("Attempt")
+		public int attempt;
+	}
+
+	@Name("com.tftpclient.Retransmit")
+	@Label("Retransmit")
+	@Category("TFTP")
+	@StackTrace(false)
+	public static class Retransmit extends Event {
+		@Label("Block")
+		public int block;
+		@Label("Reason")
+		@Description("timeout, or duplicate if the server sent a block again")
+		public String reason;
+	}
+
+	/**
+	 * Lasts while a block is read from the file (including the netascii conversion)
+	 */
+	@Name("com.tftpclient.DiskRead")
+	@Label("Disk Read")
+	@Category("TFTP")
+	@StackTrace(false)
+	public static class DiskRead extends Event {
+		@Label("Bytes")
+		@DataAmount
+		public int bytes;
+	}
+
+	/**
+	 * Lasts while a block is written to the file (including the netascii conversion)
+	 */
+	@Name("com.tftpclient.DiskWrite")
+	@Label("Disk Write")
+	@Category("TFTP")
+	@StackTrace(false)
+	public static class DiskWrite extends Event {
+		@Label("Bytes")
+		@DataAmount
+		public int bytes;
+	}
+
+	static void retransmit(int block, String reason) {
+		Retransmit event = new Retransmit();
+		if(event.shouldCommit()){
+			event.block=block;
+			event.reason=reason;
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package com.tftpclient;
+
+/**
+ * A transfer returned an error code, see {@link TFTPClient#getErrorMessage(int)}.
+ * The statistics of the transfer up to the error are available with {@link #getResult()}.
+ */
+public class TransferFailedException extends TFTPException {
+	private final TransferResult result;
+
+	public TransferFailedException(TransferResult result) {
+		super(TFTPClient.getErrorMessage(result.getCode())+" (error code "+result.getCode()+")");
+		this.result=result;
+	}
+
+	public TransferResult getResult() {
+		return result;
+	}
+
+	public int getErrorCode() {
+		return result.getCode();
+	}
+
+	/**
+	 * @return true if the server sent the error, false if it is a local error (including an unanswered server)
+	 */
+	public boolean isServerError() {
+		return result.getCode()>0;
+	}
+}
@@ -0,0 +1,616 @@
+package com.tftpclient;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * A persistent history of the transfers, see {@link TFTPClient#setHistory(TransferHistory)}.
+ * <p>
+ * Each transfer is appended to a binary log as a compact record (about 60 bytes plus the file name). When the history is opened,
+ * the log is read once to build the aggregates used by the queries : statistics by server, by hour and by result code.
+ * Their size does not depend on the number of records, so millions of transfers take a few hundred kB of memory.
+ * Other queries can go through every record with {@link #forEach(Consumer)}.
+ * <p>
+ * A record interrupted by a crash is removed when the history is opened again. A history can be shared by several threads.
+ */
+public class TransferHistory implements Closeable {
+	private static final byte[] magic = {'T','F','T','P','H','1'};
+	//Number of hours kept by the throughput trend
+	private static final int trendHours = 31*24;
+	//Number of servers with their own statistics, the next ones are counted together
+	private static final int maxServers = 4096;
+	//Result codes counted separately, from -minCode to maxCode
+	private static final int minCode = 32;
+	private static final int maxCode = 32;
+	private static final long hour = 3600_000;
+	//Size of a record without its address and file name
+	private static final int fixedLength = 8+1+1+2+2+8+8+5*4;
+
+	private final FileChannel channel;
+	private final boolean readOnly;
+	private final ByteBuffer buffer = ByteBuffer.allocate(1<<16);
+
+	private final Map<InetSocketAddress,ServerStats> servers = new HashMap<>();
+	private final ServerStats otherServers = new ServerStats((InetSocketAddress) null);
+	//Ring of hourly statistics, the slot of an hour is its number modulo trendHours
+	private final long[] hourStart = new long[trendHours];
+	private final long[] hourCount = new long[trendHours];
+	private final long[] hourFailures = new long[trendHours];
+	private final long[] hourBytes = new long[trendHours];
+	private final long[] hourDuration = new long[trendHours];
+	private final long[] codes = new long[minCode+maxCode+1];
+	private long count;
+
+	/**
+	 * A transfer of the history
+	 */
+	public static class Record {
+		private final long time;
+		private final boolean get;
+		private final InetSocketAddress server;
+		private final String fileName;
+		private final long bytes;
+		private final long duration;
+		private final int retransmits;
+		private final int minRtt;
+		private final int avgRtt;
+		private final int maxRtt;
+		private final int result;
+
+		private Record(long time, boolean get, InetSocketAddress server, String fileName, long bytes, long duration, int retransmits,
+					   int minRtt, int avgRtt, int maxRtt, int result) {
+			this.time=time;
+			this.get=get;
+			this.server=server;
+			this.fileName=fileName;
+			this.bytes=bytes;
+			this.duration=duration;
+			this.retransmits=retransmits;
+			this.minRtt=minRtt;
+			this.avgRtt=avgRtt;
+			this.maxRtt=maxRtt;
+			this.result=result;
+		}
+
+		/**
+		 * @return the end of the transfer, in ms since the epoch
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * @return true for a received file, false for a sent one
+		 */
+		public boolean isGet() {
+			return get;
+		}
+
+		public InetSocketAddress getServer() {
+			return server;
+		}
+
+		public String getFileName() {
+			return fileName;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * @return the duration of the transfer in microseconds
+		 */
+		public long getDuration() {
+			return duration;
+		}
+
+		public int getRetransmits() {
+			return retransmits;
+		}
+
+		/**
+		 * @return the minimum round trip time in microseconds, 0 if no sample was taken
+		 */
+		public int getMinRtt() {
+			return minRtt;
+		}
+
+		/**
+		 * @return the smoothed round trip time in microseconds, 0 if no sample was taken
+		 */
+		public int getAvgRtt() {
+			return avgRtt;
+		}
+
+		public int getMaxRtt() {
+			return maxRtt;
+		}
+
+		/**
+		 * @return the value returned by the transfer, see {@link TFTPClient#getErrorMessage(int)}
+		 */
+		public int getResult() {
+			return result;
+		}
+	}
+
+	/**
+	 * Statistics of the transfers with a server
+	 */
+	public static class ServerStats {
+		private final InetSocketAddress server;
+		private long transfers;
+		private long failures;
+		private long bytes;
+		//In microseconds, of the successful transfers
+		private long duration;
+		private long retransmits;
+		private long rttSum;
+		private long rttSamples;
+		private int maxRtt;
+
+		private ServerStats(InetSocketAddress server) {
+			this.server=server;
+		}
+
+		private ServerStats(ServerStats stats) {
+			this(stats.server);
+			transfers=stats.transfers;
+			failures=stats.failures;
+			bytes=stats.bytes;
+			duration=stats.duration;
+			retransmits=stats.retransmits;
+			rttSum=stats.rttSum;
+			rttSamples=stats.rttSamples;
+			maxRtt=stats.maxRtt;
+		}
+
+		private void add(Record record) {
+			transfers++;
+			if(record.result!=0)
+				failures++;
+			else{
+				bytes+=record.bytes;
+				duration+=record.duration;
+			}
+			retransmits+=record.retransmits;
+			if(record.avgRtt>0){
+				rttSum+=record.avgRtt;
+				rttSamples++;
+				maxRtt=Math.max(maxRtt,record.maxRtt);
+			}
+		}
+
+		/**
+		 * @return the server, null for the servers beyond the limit of the history, counted together
+		 */
+		public InetSocketAddress getServer() {
+			return server;
+		}
+
+		public long getTransfers() {
+			return transfers;
+		}
+
+		public long getFailures() {
+			return failures;
+		}
+
+		public double getFailureRate() {
+			return transfers==0 ? 0 : (double) failures/transfers;
+		}
+
+		/**
+		 * @return the mean throughput of the successful transfers in bytes per second
+		 */
+		public double getThroughput() {
+			return duration==0 ? 0 : bytes*1e6/duration;
+		}
+
+		/**
+		 * @return the mean of the smoothed round trip times of the transfers in ms
+		 */
+		public double getAvgRtt() {
+			return rttSamples==0 ? 0 : rttSum/1e3/rttSamples;
+		}
+
+		public double getMaxRtt() {
+			return maxRtt/1e3;
+		}
+
+		public long getRetransmits() {
+			return retransmits;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT,"%s : %d transfer(s), %.1f%% failed, %.0f bytes/s, RTT %.2f ms (max %.2f), %d retransmit(s)",
+					server==null ? "other servers" : server.getAddress().getHostAddress()+":"+server.getPort(),transfers,100*getFailureRate(),
+					getThroughput(),getAvgRtt(),getMaxRtt(),retransmits);
+		}
+	}
+
+	/**
+	 * Statistics of the transfers that ended during an hour
+	 */
+	public static class HourStats {
+		private final long start;
+		private final long transfers;
+		private final long failures;
+		private final long bytes;
+		private final long duration;
+
+		private HourStats(long start, long transfers, long failures, long bytes, long duration) {
+			this.start=start;
+			this.transfers=transfers;
+			this.failures=failures;
+			this.bytes=bytes;
+			this.duration=duration;
+		}
+
+		/**
+		 * @return the beginning of the hour in ms since the epoch
+		 */
+		public long getStart() {
+			return start;
+		}
+
+		public long getTransfers() {
+			return transfers;
+		}
+
+		public long getFailures() {
+			return failures;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * @return the mean throughput of the successful transfers in bytes per second
+		 */
+		public double getThroughput() {
+			return duration==0 ? 0 : bytes*1e6/duration;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT,"%tF %<tH:00 : %d transfer(s), %d failed, %d bytes, %.0f bytes/s",start,transfers,failures,bytes,getThroughput());
+		}
+	}
+
+	/**
+	 * Opens a history, the file is created if it does not exist
+	 * @throws IOException if the file can not be opened or is not a history
+	 */
+	public TransferHistory(File file) throws IOException {
+		this(file,false);
+	}
+
+	/**
+	 * Opens a history
+	 * @param readOnly true to only query the history : the file must exist, it is never modified and no transfer can be recorded
+	 * @throws IOException if the file can not be opened or is not a history
+	 */
+	public TransferHistory(File file, boolean readOnly) throws IOException {
+		this.readOnly=readOnly;
+		channel = readOnly ? FileChannel.open(file.toPath(),StandardOpenOption.READ)
+				: FileChannel.open(file.toPath(),StandardOpenOption.CREATE,StandardOpenOption.READ,StandardOpenOption.WRITE);
+		try {
+			if(channel.size()==0 && !readOnly)
+				channel.write(ByteBuffer.wrap(magic));
+			long end = scan(this::index);
+			//Removes the end of a record interrupted by a crash
+			if(end<channel.size() && !readOnly)
+				channel.truncate(end);
+			channel.position(end);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Adds a finished transfer to the history
+	 */
+	public void record(boolean get, String fileName, TransferMonitor monitor) throws IOException {
+		if(readOnly)
+			throw new IOException("The history is opened read-only");
+		InetSocketAddress server = monitor.getServer();
+		if(server==null)
+			return;
+		Record record = new Record(System.currentTimeMillis(),get,server,fileName,monitor.getBytes(),(long) (monitor.getDuration()*1e3),
+				monitor.getRetransmits(),(int) (monitor.getMinRtt()*1e3),(int) (monitor.getSmoothedRtt()*1e3),(int) (monitor.getMaxRtt()*1e3),
+				monitor.getResult());
+		synchronized (this) {
+			buffer.clear();
+			buffer.putShort((short) 0);
+			buffer.putLong(record.time);
+			buffer.put((byte) (record.get ? 1 : 0));
+			byte[] address = server.getAddress().getAddress();
+			buffer.put((byte) address.length);
+			buffer.put(address);
+			buffer.putShort((short) server.getPort());
+			byte[] name = fileName.getBytes(StandardCharsets.UTF_8);
+			int nameLength = Math.min(name.length,buffer.capacity()-128);
+			buffer.putShort((short) nameLength);
+			buffer.put(name,0,nameLength);
+			buffer.putLong(record.bytes);
+			buffer.putLong(record.duration);
+			buffer.putInt(record.retransmits);
+			buffer.putInt(record.minRtt);
+			buffer.putInt(record.avgRtt);
+			buffer.putInt(record.maxRtt);
+			buffer.putInt(record.result);
+			buffer.putShort(0,(short) (buffer.position()-2));
+			buffer.flip();
+			while(buffer.hasRemaining())
+				channel.write(buffer);
+			index(record);
+		}
+	}
+
+	/**
+	 * Goes through every record of the history, oldest first
+	 */
+	public void forEach(Consumer<Record> consumer) throws IOException {
+		long end;
+		synchronized (this) {
+			end = channel.position();
+		}
+		//Positional reads, the records written meanwhile are not read
+		try (InputStream in = new BufferedInputStream(new ChannelInputStream(channel,end),1<<16)) {
+			read(new DataInputStream(in),consumer);
+		}
+	}
+
+	/**
+	 * Reads the whole file when the history is opened
+	 * @return the end of the last complete record
+	 */
+	private long scan(Consumer<Record> consumer) throws IOException {
+		try (InputStream in = new BufferedInputStream(new ChannelInputStream(channel,channel.size()),1<<16)) {
+			return read(new DataInputStream(in),consumer);
+		}
+	}
+
+	/**
+	 * @return the position after the last complete record
+	 */
+	private static long read(DataInputStream in, Consumer<Record> consumer) throws IOException {
+		byte[] header = new byte[magic.length];
+		try {
+			in.readFully(header);
+		} catch (EOFException e) {
+			throw new IOException("Not a transfer history");
+		}
+		if(!Arrays.equals(header,magic))
+			throw new IOException("Not a transfer history");
+		long position = magic.length;
+		byte[] record = new byte[1<<16];
+		while(true){
+			int length;
+			try {
+				length = in.readUnsignedShort();
+				in.readFully(record,0,length);
+			} catch (EOFException e) {
+				return position;
+			}
+			Record parsed = parse(ByteBuffer.wrap(record,0,length));
+			//A crash can also leave garbage or zeros (e.g. a preallocated end of file) : the history ends at the last valid record
+			if(parsed==null)
+				return position;
+			consumer.accept(parsed);
+			position+=2+length;
+		}
+	}
+
+	/**
+	 * @return the record, null if the data is not a valid record
+	 */
+	private static Record parse(ByteBuffer b) {
+		if(b.remaining()<fixedLength)
+			return null;
+		long time = b.getLong();
+		boolean get = b.get()==1;
+		int addressLength = b.get() & 0xff;
+		if(addressLength!=4 && addressLength!=16 || b.remaining()<addressLength+4)
+			return null;
+		byte[] address = new byte[addressLength];
+		b.get(address);
+		int port = b.getShort() & 0xffff;
+		int nameLength = b.getShort() & 0xffff;
+		if(b.remaining()!=nameLength+fixedLength-14)
+			return null;
+		byte[] name = new byte[nameLength];
+		b.get(name);
+		InetSocketAddress server;
+		try {
+			server = new InetSocketAddress(InetAddress.getByAddress(address),port);
+		} catch (UnknownHostException e) {
+			return null;
+		}
+		return new Record(time,get,server,new String(name,StandardCharsets.UTF_8),b.getLong(),b.getLong(),b.getInt(),b.getInt(),b.getInt(),b.getInt(),b.getInt());
+	}
+
+	/**
+	 * Adds a record to the aggregates
+	 */
+	private synchronized void index(Record record) {
+		count++;
+		ServerStats stats = servers.get(record.server);
+		if(stats==null){
+			if(servers.size()<maxServers){
+				stats = new ServerStats(record.server);
+				servers.put(record.server,stats);
+			}
+			else
+				stats = otherServers;
+		}
+		stats.add(record);
+
+		long start = record.time-Math.floorMod(record.time,hour);
+		int slot = (int) Math.floorMod(start/hour,(long) trendHours);
+		if(hourStart[slot]<start){
+			//The slot held an hour too old to be kept
+			hourStart[slot]=start;
+			hourCount[slot]=0;
+			hourFailures[slot]=0;
+			hourBytes[slot]=0;
+			hourDuration[slot]=0;
+		}
+		if(hourStart[slot]==start){
+			hourCount[slot]++;
+			if(record.result!=0)
+				hourFailures[slot]++;
+			else{
+				hourBytes[slot]+=record.bytes;
+				hourDuration[slot]+=record.duration;
+			}
+		}
+
+		codes[Math.max(-minCode,Math.min(maxCode,record.result))+minCode]++;
+	}
+
+	/**
+	 * @return the number of transfers of the history
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the statistics of every server, the servers beyond the limit of the history are counted together
+	 */
+	public synchronized List<ServerStats> getServers() {
+		List<ServerStats> list = new ArrayList<>();
+		for(ServerStats stats : servers.values())
+			list.add(new ServerStats(stats));
+		if(otherServers.transfers>0)
+			list.add(new ServerStats(otherServers));
+		return list;
+	}
+
+	/**
+	 * @return the servers with the lowest mean throughput, slowest first. Servers without a successful transfer are not included.
+	 */
+	public List<ServerStats> getSlowestServers(int n) {
+		List<ServerStats> list = getServers();
+		list.removeIf(s -> s.duration==0);
+		list.sort(Comparator.comparingDouble(ServerStats::getThroughput));
+		return list.subList(0,Math.min(n,list.size()));
+	}
+
+	/**
+	 * @return the servers with the highest failure rate, worst first
+	 */
+	public List<ServerStats> getFailingServers(int n) {
+		List<ServerStats> list = getServers();
+		list.removeIf(s -> s.failures==0);
+		list.sort(Comparator.comparingDouble(ServerStats::getFailureRate).reversed());
+		return list.subList(0,Math.min(n,list.size()));
+	}
+
+	/**
+	 * @return the statistics of the last hours (up to 31 days) that had transfers, oldest first
+	 */
+	public synchronized List<HourStats> getTrend(int hours) {
+		long now = System.currentTimeMillis();
+		long from = now-Math.floorMod(now,hour)-(long) (Math.min(hours,trendHours)-1)*hour;
+		List<HourStats> list = new ArrayList<>();
+		for(int i=0;i<trendHours;i++)
+			if(hourCount[i]>0 && hourStart[i]>=from)
+				list.add(new HourStats(hourStart[i],hourCount[i],hourFailures[i],hourBytes[i],hourDuration[i]));
+		list.sort(Comparator.comparingLong(HourStats::getStart));
+		return list;
+	}
+
+	/**
+	 * @return the number of transfers by result code (0 for the successful ones), codes above 32 (below -32) are counted as 32 (-32)
+	 */
+	public synchronized SortedMap<Integer,Long> getResults() {
+		SortedMap<Integer,Long> map = new TreeMap<>();
+		for(int i=0;i<codes.length;i++)
+			if(codes[i]>0)
+				map.put(i-minCode,codes[i]);
+		return map;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Reads a channel from its beginning up to a position without moving its own position
+	 */
+	private static class ChannelInputStream extends InputStream {
+		private final FileChannel channel;
+		private final long end;
+		private long position;
+
+		ChannelInputStream(FileChannel channel, long end) {
+			this.channel=channel;
+			this.end=end;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b,0,1)<0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(position>=end)
+				return -1;
+			int n = channel.read(ByteBuffer.wrap(b,off,(int) Math.min(len,end-position)),position);
+			if(n>0)
+				position+=n;
+			return n;
+		}
+	}
+
+	/**
+	 * Prints a summary of a history : slowest and failing servers, trend of the last 24 hours, results
+	 * <p>
+	 * Usage : TransferHistory history.bin [number of servers to list]
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length<1 || args.length>2){
+			System.err.println("Usage : TransferHistory <history file> [number of servers to list]");
+			System.exit(2);
+		}
+		int n = args.length>1 ? Integer.parseInt(args[1]) : 10;
+		File file = new File(args[0]);
+		if(!file.isFile()){
+			System.err.println("No history at "+file);
+			System.exit(2);
+		}
+		try (TransferHistory history = new TransferHistory(file,true)) {
+			System.out.println(history.getCount()+" transfer(s)");
+			System.out.println("\nSlowest servers :");
+			for(ServerStats stats : history.getSlowestServers(n))
+				System.out.println("  "+stats);
+			System.out.println("\nServers failing the most :");
+			for(ServerStats stats : history.getFailingServers(n))
+				System.out.println("  "+stats);
+			System.out.println("\nLast 24 hours :");
+			for(HourStats stats : history.getTrend(24))
+				System.out.println("  "+stats);
+			System.out.println("\nResults :");
+			for(Map.Entry<Integer,Long> result : history.getResults().entrySet())
+				System.out.println("  "+result.getValue()+" x "+result.getKey()+" : "+TFTPClient.getErrorMessage(result.getKey()));
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package com.tftpclient;
+
+/**
+ * Transfer modes of the TFTP protocol (RFC 1350). The mail mode is obsolete and not supported.
+ */
+public enum TransferMode {
+	/**
+	 * 8-bit ASCII with line endings translated to CR LF (and lone CRs to CR NUL) on the wire, see {@link NetasciiInputStream} and {@link NetasciiOutputStream}
+	 */
+	NETASCII("netascii"),
+	/**
+	 * Raw 8-bit bytes, the file is sent as is. This is the fast path and the only correct mode for binary files
+	 */
+	OCTET("octet");
+
+	public final String value;
+	TransferMode(String value) {this.value=value;}
+}
@@ -0,0 +1,249 @@
+package com.tftpclient;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * Progress and statistics of a single transfer, updated by {@link TFTPClient} while the transfer runs.
+ * <p>
+ * A monitor is written by the thread running the transfer only, but can be read (e.g. to display a progress bar) and
+ * cancelled from any thread. It also holds the limits of the transfer : deadline and bandwidth. When it is used for several attempts (see {@link ServerGroup}), the statistics are the ones of the last attempt.
+ */
+public class TransferMonitor {
+	//Weight of a new sample in the smoothed RTT, same as TCP's SRTT (RFC 6298)
+	private static final double rttAlpha = 0.125;
+
+	private volatile boolean cancelled;
+	//Value of System.nanoTime() after which the transfer stops, 0 for no deadline
+	private volatile long deadline;
+
+	private volatile InetSocketAddress server;
+	private volatile TokenBucket rateLimiter;
+
+	private volatile long startTime;
+	private volatile long endTime;
+	//End of the data exchange of a received file, before the wait for a retransmission of the last block
+	private volatile long dataEndTime;
+	private volatile long totalBytes = -1;
+	private volatile long bytes;
+	private volatile int blocks;
+	private volatile int retransmits;
+	private volatile int result;
+	private volatile boolean done;
+
+	//Round trip times, in nanoseconds
+	private volatile int rttSamples;
+	private volatile long smoothedRtt;
+	private volatile long minRtt;
+	private volatile long maxRtt;
+
+	/**
+	 * Asks the transfer to stop. The transfer notices it before its next block or while waiting for the server,
+	 * it then returns the "cancelled" error code (see {@link TFTPClient#getErrorMessage(int)}).
+	 */
+	public void cancel() {
+		cancelled=true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Gives the transfer a deadline : if it is not over in the given time (from now), it stops like a cancelled transfer but returns
+	 * the "deadline exceeded" error code (see {@link TFTPClient#getErrorMessage(int)}). 0 or less removes the deadline.
+	 */
+	public void setDeadline(long millisFromNow) {
+		deadline = millisFromNow>0 ? Math.max(1,System.nanoTime()+millisFromNow*1_000_000) : 0;
+	}
+
+	/**
+	 * @return true if the transfer has a deadline and it is passed
+	 */
+	public boolean isExpired() {
+		long d = deadline;
+		return d!=0 && System.nanoTime()-d>=0;
+	}
+
+	/**
+	 * @return true if the transfer must stop : it was cancelled or its deadline is passed
+	 */
+	boolean shouldStop() {
+		return cancelled || isExpired();
+	}
+
+	/**
+	 * Limits the bandwidth of the transfer, in bytes per second (0 for no limit). It can be changed while the transfer runs.
+	 * @see RateLimiter
+	 */
+	public synchronized void setRateLimit(long bytesPerSecond) {
+		if(bytesPerSecond<=0){
+			//Releases a packet waiting for the old limit
+			if(rateLimiter!=null)
+				rateLimiter.setRate(0);
+			rateLimiter=null;
+		}
+		else if(rateLimiter==null)
+			rateLimiter=new TokenBucket(bytesPerSecond);
+		else
+			rateLimiter.setRate(bytesPerSecond);
+	}
+
+	/**
+	 * @return the bandwidth limit of the transfer in bytes per second, 0 if there is none
+	 */
+	public long getRateLimit() {
+		TokenBucket bucket = rateLimiter;
+		return bucket==null ? 0 : bucket.getRate();
+	}
+
+	TokenBucket getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * Resets the statistics at the beginning of an attempt, a cancellation request is kept
+	 */
+	void start(InetAddress serverIP, int serverPort) {
+		server=new InetSocketAddress(serverIP,serverPort);
+		startTime=System.nanoTime();
+		endTime=0;
+		dataEndTime=0;
+		totalBytes=-1;
+		bytes=0;
+		blocks=0;
+		retransmits=0;
+		rttSamples=0;
+		smoothedRtt=0;
+		minRtt=0;
+		maxRtt=0;
+		result=0;
+		done=false;
+	}
+
+	void setTotalBytes(long totalBytes) {
+		this.totalBytes=totalBytes;
+	}
+
+	void block(int length) {
+		blocks++;
+		bytes+=length;
+	}
+
+	void retransmit() {
+		retransmits++;
+	}
+
+	/**
+	 * Adds a round trip time sample. Samples are only taken for packets that were not sent again (Karn's algorithm).
+	 */
+	void rtt(long nanos) {
+		if(rttSamples==0){
+			smoothedRtt=nanos;
+			minRtt=nanos;
+			maxRtt=nanos;
+		}
+		else{
+			smoothedRtt+=(long) (rttAlpha*(nanos-smoothedRtt));
+			minRtt=Math.min(minRtt,nanos);
+			maxRtt=Math.max(maxRtt,nanos);
+		}
+		rttSamples++;
+	}
+
+	/**
+	 * Marks the end of the data exchange : the last block is received and acknowledged, the client only waits in case
+	 * the server did not get the ACK. This wait is not part of the duration.
+	 */
+	void dataEnd() {
+		dataEndTime=System.nanoTime();
+	}
+
+	void finish(int result) {
+		this.result=result;
+		endTime=System.nanoTime();
+		done=true;
+	}
+
+	/**
+	 * @return the server of the transfer (of its last attempt), null if it was not started
+	 */
+	public InetSocketAddress getServer() {
+		return server;
+	}
+
+	/**
+	 * @return true once the transfer returned, see {@link #getResult()}
+	 */
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * @return the value returned by the transfer, only meaningful once {@link #isDone()} is true
+	 */
+	public int getResult() {
+		return result;
+	}
+
+	/**
+	 * @return the size of the file in bytes if it is known (i.e. for a sent file), -1 otherwise
+	 */
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * @return the number of data bytes sent or received so far
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	public int getBlocks() {
+		return blocks;
+	}
+
+	/**
+	 * @return the number of packets sent again, after a timeout or because the server sent a block again
+	 */
+	public int getRetransmits() {
+		return retransmits;
+	}
+
+	/**
+	 * @return the duration of the transfer in ms, up to now if it is still running. For a received file, it ends with the ACK
+	 * of the last block : the time spent waiting for the server to send the last block again is not included.
+	 */
+	public double getDuration() {
+		if(startTime==0)
+			return 0;
+		long end = dataEndTime!=0 ? dataEndTime : done ? endTime : System.nanoTime();
+		return (end-startTime)/1e6;
+	}
+
+	public int getRttSamples() {
+		return rttSamples;
+	}
+
+	/**
+	 * @return the smoothed round trip time in ms, 0 if no sample was taken
+	 */
+	public double getSmoothedRtt() {
+		return smoothedRtt/1e6;
+	}
+
+	/**
+	 * @return the minimum round trip time in ms, 0 if no sample was taken
+	 */
+	public double getMinRtt() {
+		return minRtt/1e6;
+	}
+
+	/**
+	 * @return the maximum round trip time in ms, 0 if no sample was taken
+	 */
+	public double getMaxRtt() {
+		return maxRtt/1e6;
+	}
+}
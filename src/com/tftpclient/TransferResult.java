@@ -0,0 +1,105 @@
+package com.tftpclient;
+
+import java.net.InetSocketAddress;
+
+/**
+ * The outcome of a finished transfer and its statistics, see {@link AsyncTFTPClient}
+ */
+public class TransferResult {
+	private final String localFile;
+	private final String remoteFile;
+	private final InetSocketAddress server;
+	private final int code;
+	private final long bytes;
+	private final int blocks;
+	private final int retransmits;
+	private final double duration;
+	private final double smoothedRtt;
+	private final double minRtt;
+	private final double maxRtt;
+
+	/**
+	 * Copies the statistics of a finished transfer
+	 */
+	TransferResult(String localFile, String remoteFile, TransferMonitor monitor) {
+		this.localFile=localFile;
+		this.remoteFile=remoteFile;
+		this.server=monitor.getServer();
+		this.code=monitor.getResult();
+		this.bytes=monitor.getBytes();
+		this.blocks=monitor.getBlocks();
+		this.retransmits=monitor.getRetransmits();
+		this.duration=monitor.getDuration();
+		this.smoothedRtt=monitor.getSmoothedRtt();
+		this.minRtt=monitor.getMinRtt();
+		this.maxRtt=monitor.getMaxRtt();
+	}
+
+	/**
+	 * @return the local file sent or written, null if the data was not read from or written to a file
+	 */
+	public String getLocalFile() {
+		return localFile;
+	}
+
+	public String getRemoteFile() {
+		return remoteFile;
+	}
+
+	/**
+	 * @return the server of the transfer, null if it never started
+	 */
+	public InetSocketAddress getServer() {
+		return server;
+	}
+
+	/**
+	 * @return the value returned by the transfer, see {@link TFTPClient#getErrorMessage(int)}
+	 */
+	public int getCode() {
+		return code;
+	}
+
+	public boolean isSuccess() {
+		return code==0;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public int getBlocks() {
+		return blocks;
+	}
+
+	public int getRetransmits() {
+		return retransmits;
+	}
+
+	/**
+	 * @return the duration of the transfer in ms
+	 */
+	public double getDuration() {
+		return duration;
+	}
+
+	/**
+	 * @return the smoothed round trip time in ms, 0 if no sample was taken
+	 */
+	public double getSmoothedRtt() {
+		return smoothedRtt;
+	}
+
+	public double getMinRtt() {
+		return minRtt;
+	}
+
+	public double getMaxRtt() {
+		return maxRtt;
+	}
+
+	@Override
+	public String toString() {
+		return (remoteFile!=null ? remoteFile : localFile)+" : "+TFTPClient.getErrorMessage(code)+" ("+bytes+" bytes in "+String.format("%.1f",duration)+"ms)";
+	}
+}
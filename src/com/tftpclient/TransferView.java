@@ -0,0 +1,81 @@
+package com.tftpclient;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * A line of the transfer queue of {@link GUITFTP} : the name of the file, a progress bar and a button to cancel the transfer.
+ * <p>
+ * The transfer itself runs on a background thread, this view only reads its {@link TransferMonitor} when {@link #refresh()} is called on the EDT.
+ */
+public class TransferView extends JPanel {
+	private final TransferMonitor monitor = new TransferMonitor();
+	private final JProgressBar progress = new JProgressBar(0,1000);
+	private final JButton cancel = new JButton("Cancel");
+	private volatile boolean started;
+
+	public TransferView(String description) {
+		super(new BorderLayout(5,0));
+		JLabel label = new JLabel(description);
+		label.setPreferredSize(new Dimension(300,20));
+		add(BorderLayout.WEST,label);
+		progress.setStringPainted(true);
+		progress.setString("Waiting...");
+		add(BorderLayout.CENTER,progress);
+		cancel.addActionListener(e -> {
+			monitor.cancel();
+			cancel.setEnabled(false);
+			if(!started)
+				progress.setString("Cancelled");
+		});
+		add(BorderLayout.EAST,cancel);
+		setMaximumSize(new Dimension(Integer.MAX_VALUE,getPreferredSize().height));
+	}
+
+	public TransferMonitor getMonitor() {
+		return monitor;
+	}
+
+	/**
+	 * Called by the worker thread right before the transfer starts
+	 * @return false if the transfer was cancelled while it was waiting in the queue
+	 */
+	public boolean start() {
+		//A transfer cancelled in the queue never starts, so the view keeps showing it as cancelled and finished
+		if(monitor.isCancelled())
+			return false;
+		started=true;
+		return true;
+	}
+
+	public boolean isDone() {
+		return monitor.isDone() || (monitor.isCancelled() && !started);
+	}
+
+	/**
+	 * Updates the progress bar from the monitor of the transfer
+	 */
+	public void refresh() {
+		if(!started)
+			return;
+		if(monitor.isDone()){
+			int result = monitor.getResult();
+			progress.setIndeterminate(false);
+			progress.setValue(result==0 ? progress.getMaximum() : 0);
+			progress.setString(result==0 ? String.format("Done, %d bytes in %.0f ms",monitor.getBytes(),monitor.getDuration())
+					: TFTPClient.getErrorMessage(result));
+			cancel.setEnabled(false);
+			return;
+		}
+		long total = monitor.getTotalBytes();
+		String text = monitor.getBytes()+(total>=0 ? " / "+total : "")+" bytes";
+		if(total>=0){
+			progress.setIndeterminate(false);
+			progress.setValue(total==0 ? progress.getMaximum() : (int) Math.min(progress.getMaximum(),monitor.getBytes()*progress.getMaximum()/total));
+		}
+		else
+			//The size of a received file is not known
+			progress.setIndeterminate(true);
+		progress.setString(text);
+	}
+}
@@ -0,0 +1,74 @@
+package com.tftpclient.bench;
+
+import com.tftpclient.BytesUtils;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * Inputs and block loops shared by the benchmarks of the transfer stages
+ */
+final class BenchUtils {
+	private BenchUtils() {}
+
+	/**
+	 * A benchmark run on one input
+	 */
+	interface Input {
+		void run(String name, byte[] data) throws IOException;
+	}
+
+	/**
+	 * Parses the command line of a benchmark : [sizeInMB] [file...]
+	 * @return the size of the generated inputs in bytes, 16 MB by default
+	 */
+	static int size(String[] args) {
+		return args.length>0 ? Integer.parseInt(args[0])<<20 : 16<<20;
+	}
+
+	/**
+	 * Runs the benchmark on the files given on the command line after the size
+	 * @return false if there is no such file, the benchmark then uses its own inputs
+	 */
+	static boolean runFiles(String[] args, Input benchmark) throws IOException {
+		for(int i=1;i<args.length;i++)
+			benchmark.run(args[i],readFile(new File(args[i])));
+		return args.length>1;
+	}
+
+	/**
+	 * Reads a stream block by block as {@link com.tftpclient.TFTPClient#sendFile} does
+	 * @param capacity Expected size of the result
+	 * @return the data of every block, concatenated
+	 */
+	static byte[] readBlocks(InputStream in, int capacity) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(capacity);
+		byte[] block = new byte[516];
+		int n;
+		do {
+			n = BytesUtils.readFully(in,block,4,512);
+			out.write(block,4,n);
+		}while(n==512);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Writes the data to a stream in 512 bytes blocks as {@link com.tftpclient.TFTPClient#receiveFile} does
+	 */
+	static void writeBlocks(byte[] wire, OutputStream out) throws IOException {
+		for(int off=0;off<wire.length;off+=512)
+			out.write(wire,off,Math.min(512,wire.length-off));
+	}
+
+	static byte[] generateBinary(int size) {
+		byte[] data = new byte[size];
+		new Random(42).nextBytes(data);
+		return data;
+	}
+
+	static byte[] readFile(File file) throws IOException {
+		try(InputStream in = new FileInputStream(file)){
+			return in.readAllBytes();
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.tftpclient.bench;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
+
+/**
+ * Measures what the compress option (see {@link com.tftpclient.TFTPClient#setCompression}) costs in CPU on the client side and saves
+ * on the wire : the file goes through the deflate stage then is cut into 512 bytes blocks when sending, and the blocks are inflated when receiving.
+ * Every block saved is also a round trip saved.
+ * <p>
+ * Usage : CompressionBenchmark [sizeInMB] [file...]. Without files, the files of testfiles/ and generated corpora (logs, configuration, random binary) are used.
+ */
+public class CompressionBenchmark {
+	private static final int rounds = 10;
+	//Levels compared, the client uses Deflater.DEFAULT_COMPRESSION (6)
+	private static final int[] levels = {Deflater.BEST_SPEED,6,Deflater.BEST_COMPRESSION};
+
+	public static void main(String[] args) throws IOException {
+		int size = BenchUtils.size(args);
+		if(!BenchUtils.runFiles(args,CompressionBenchmark::run)){
+			File[] samples = new File("testfiles").listFiles();
+			if(samples!=null)
+				for(File sample : samples)
+					if(sample.isFile())
+						run(sample.getPath(),BenchUtils.readFile(sample));
+			run("generated logs",generateLogs(size));
+			run("generated configuration",generateConfig(size));
+			run("random binary",BenchUtils.generateBinary(size));
+		}
+	}
+
+	private static void run(String name, byte[] data) throws IOException {
+		System.out.println("\n"+name+" ("+data.length+" bytes, "+blocks(data.length)+" blocks)");
+		System.out.printf("%-8s %12s %8s %8s %14s %14s%n","level","wire bytes","blocks","saved","compress","decompress");
+		//Small files are repeated so that the time is measurable
+		int repeat = Math.max(1,(1<<20)/Math.max(1,data.length));
+		for(int level : levels){
+			byte[] wire = compress(data,level);
+			if(!Arrays.equals(data,decompress(wire)))
+				throw new IllegalStateException("deflate round trip failed for "+name);
+			long compressTime = Long.MAX_VALUE;
+			long decompressTime = Long.MAX_VALUE;
+			for(int r=0;r<rounds;r++){
+				long start = System.nanoTime();
+				for(int i=0;i<repeat;i++)
+					compress(data,level);
+				compressTime = Math.min(compressTime,System.nanoTime()-start);
+				start = System.nanoTime();
+				for(int i=0;i<repeat;i++)
+					decompress(wire);
+				decompressTime = Math.min(decompressTime,System.nanoTime()-start);
+			}
+			double megabytes = (double) data.length*repeat/(1<<20);
+			System.out.printf("%-8d %12d %8d %7.1f%% %9.1f MB/s %9.1f MB/s%n",level,wire.length,blocks(wire.length),
+					100.0*(data.length-wire.length)/Math.max(1,data.length),megabytes/(compressTime/1e9),megabytes/(decompressTime/1e9));
+		}
+	}
+
+	/**
+	 * @return the number of DATA packets of a transfer, a file whose size is a multiple of 512 ends with an empty block
+	 */
+	private static long blocks(long length) {
+		return length/512+1;
+	}
+
+	/**
+	 * Reads the compressed data block by block as {@link com.tftpclient.TFTPClient#sendFile} does
+	 */
+	private static byte[] compress(byte[] data, int level) throws IOException {
+		Deflater deflater = new Deflater(level);
+		try(InputStream in = new DeflaterInputStream(new ByteArrayInputStream(data),deflater)){
+			return BenchUtils.readBlocks(in,data.length/2+64);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Inflates the data block by block as {@link com.tftpclient.TFTPClient#receiveFile} does
+	 */
+	private static byte[] decompress(byte[] wire) throws IOException {
+		ByteArrayOutputStream sink = new ByteArrayOutputStream(wire.length*4);
+		Inflater inflater = new Inflater();
+		try(OutputStream out = new InflaterOutputStream(sink,inflater)){
+			BenchUtils.writeBlocks(wire,out);
+		} finally {
+			inflater.end();
+		}
+		return sink.toByteArray();
+	}
+
+	/**
+	 * Log lines : timestamps, a few levels and messages with variable parts
+	 */
+	private static byte[] generateLogs(int size) {
+		Random random = new Random(42);
+		String[] levels = {"INFO","INFO","INFO","DEBUG","WARN","ERROR"};
+		String[] messages = {"Connection accepted from 10.0.%d.%d","Request %d served in %d ms","Cache miss for key user:%d:%d",
+				"Retrying upload, attempt %d of %d","Configuration reloaded (%d entries, %d changed)"};
+		StringBuilder sb = new StringBuilder(size+200);
+		long time = 1_600_000_000_000L;
+		while(sb.length()<size){
+			time+=random.nextInt(2000);
+			sb.append(time).append(' ').append(levels[random.nextInt(levels.length)]).append(" [worker-").append(random.nextInt(16)).append("] ")
+					.append(String.format(messages[random.nextInt(messages.length)],random.nextInt(256),random.nextInt(1000))).append('\n');
+		}
+		return Arrays.copyOf(sb.toString().getBytes(),size);
+	}
+
+	/**
+	 * Configuration files : sections of key = value lines
+	 */
+	private static byte[] generateConfig(int size) {
+		Random random = new Random(42);
+		String[] keys = {"interface","address","netmask","gateway","mtu","vlan","enabled","description","timeout","retries"};
+		StringBuilder sb = new StringBuilder(size+200);
+		int section = 0;
+		while(sb.length()<size){
+			sb.append("[port").append(section++).append("]\n");
+			for(String key : keys)
+				sb.append(key).append(" = ").append(key.equals("enabled") ? "true" : String.valueOf(random.nextInt(100000))).append('\n');
+			sb.append('\n');
+		}
+		return Arrays.copyOf(sb.toString().getBytes(),size);
+	}
+}
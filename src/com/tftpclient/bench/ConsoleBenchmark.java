@@ -0,0 +1,92 @@
+package com.tftpclient.bench;
+
+import com.tftpclient.MessageConsole;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stress test of {@link MessageConsole} : several threads print lines like the ones written for each packet of a transfer
+ * while the console displays them, then the number of lines per second sustained by the writers, the number of lines
+ * dropped and the responsiveness of the EDT are printed.
+ * <p>
+ * Usage : ConsoleBenchmark [threads] [seconds]. It can run headless (-Djava.awt.headless=true).
+ */
+public class ConsoleBenchmark {
+	//Period of the probe measuring the delay of the EDT, in ms
+	private static final int probePeriod = 10;
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length>0 ? Integer.parseInt(args[0]) : 4;
+		int seconds = args.length>1 ? Integer.parseInt(args[1]) : 5;
+		PrintStream console = System.out;
+
+		JTextArea area = new JTextArea();
+		MessageConsole mc = new MessageConsole(area);
+		mc.redirectOut();
+		mc.setMessageLines(2000);
+
+		//Counts the lines actually added to the document
+		LongAdder displayed = new LongAdder();
+		area.getDocument().addDocumentListener(new DocumentListener() {
+			public void insertUpdate(DocumentEvent e) {
+				try {
+					String text = e.getDocument().getText(e.getOffset(),e.getLength());
+					displayed.add(text.chars().filter(c -> c=='\n').count());
+				} catch (BadLocationException ignored) {}
+			}
+			public void removeUpdate(DocumentEvent e) {}
+			public void changedUpdate(DocumentEvent e) {}
+		});
+
+		//Measures how late a timer task is run on the EDT
+		long[] delays = new long[3];
+		long[] last = {System.nanoTime()};
+		Timer probe = new Timer(probePeriod, e -> {
+			long now = System.nanoTime();
+			long delay = Math.max(0,(now-last[0])/1_000_000-probePeriod);
+			delays[0] = Math.max(delays[0],delay);
+			delays[1] += delay;
+			delays[2]++;
+			last[0] = now;
+		});
+		probe.start();
+
+		AtomicBoolean running = new AtomicBoolean(true);
+		LongAdder written = new LongAdder();
+		Thread[] writers = new Thread[threads];
+		for(int i=0;i<threads;i++){
+			int id = i;
+			writers[i] = new Thread(() -> {
+				int blockN = 0;
+				while(running.get()){
+					System.out.println("\nSending the #"+(blockN++)+" block of 516 bytes (writer "+id+")");
+					written.increment();
+				}
+			});
+			writers[i].start();
+		}
+		long start = System.nanoTime();
+		Thread.sleep(seconds*1000L);
+		running.set(false);
+		for(Thread writer : writers)
+			writer.join();
+		double elapsed = (System.nanoTime()-start)/1e9;
+
+		//Lets the last frames be displayed
+		Thread.sleep(200);
+		SwingUtilities.invokeAndWait(probe::stop);
+		console.printf("%d writers, %.1f s%n",threads,elapsed);
+		console.printf("lines written   : %d (%.0f lines/s)%n",written.sum(),written.sum()/elapsed);
+		console.printf("lines displayed : %d (%.0f lines/s)%n",displayed.sum(),displayed.sum()/elapsed);
+		console.printf("lines dropped   : %d%n",Math.max(0,written.sum()-displayed.sum()));
+		console.printf("document lines  : %d%n",area.getLineCount());
+		console.printf("EDT delay       : %.1f ms on average, %d ms max%n",(double) delays[1]/Math.max(1,delays[2]),delays[0]);
+		System.exit(0);
+	}
+}
@@ -0,0 +1,93 @@
+package com.tftpclient.bench;
+
+import com.tftpclient.NetasciiInputStream;
+import com.tftpclient.NetasciiOutputStream;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the cost of the netascii translation to the octet mode (plain copy) on the client side of a transfer :
+ * the file is cut into 512 bytes blocks when sending and the blocks are written back when receiving.
+ * <p>
+ * Usage : NetasciiBenchmark [sizeInMB] [file...]. Without files, a generated text file and a random binary file are used.
+ */
+public class NetasciiBenchmark {
+	private static final int rounds = 10;
+
+	public static void main(String[] args) throws IOException {
+		int size = BenchUtils.size(args);
+		if(!BenchUtils.runFiles(args,NetasciiBenchmark::run)){
+			run("generated text",generateText(size));
+			run("random binary",BenchUtils.generateBinary(size));
+		}
+	}
+
+	private static void run(String name, byte[] data) throws IOException {
+		System.out.println("\n"+name+" ("+data.length+" bytes)");
+
+		//Round trip check before measuring anything
+		byte[] wire = encode(data,false);
+		byte[] back = decode(wire,false);
+		if(!Arrays.equals(data,back))
+			throw new IllegalStateException("netascii round trip failed for "+name);
+		System.out.println("wire size in netascii mode : "+wire.length+" bytes");
+
+		for(int r=0;r<rounds;r++){
+			boolean print = r==rounds-1;
+			measure("octet    send",data.length,print,() -> encode(data,true));
+			measure("netascii send",data.length,print,() -> encode(data,false));
+			measure("octet    receive",data.length,print,() -> decode(data,true));
+			measure("netascii receive",data.length,print,() -> decode(wire,false));
+		}
+	}
+
+	private interface Task {
+		byte[] run() throws IOException;
+	}
+
+	private static void measure(String label, int length, boolean print, Task task) throws IOException {
+		long start = System.nanoTime();
+		task.run();
+		long elapsed = System.nanoTime()-start;
+		if(print)
+			System.out.printf("%-18s %8.1f MB/s%n",label,length/(elapsed/1e9)/(1<<20));
+	}
+
+	/**
+	 * Reads the data block by block as {@link com.tftpclient.TFTPClient#sendFile} does
+	 */
+	private static byte[] encode(byte[] data, boolean octet) throws IOException {
+		InputStream in = new ByteArrayInputStream(data);
+		if(!octet)
+			in = new NetasciiInputStream(in);
+		return BenchUtils.readBlocks(in,data.length+data.length/8);
+	}
+
+	/**
+	 * Writes the data block by block as {@link com.tftpclient.TFTPClient#receiveFile} does
+	 */
+	private static byte[] decode(byte[] wire, boolean octet) throws IOException {
+		ByteArrayOutputStream sink = new ByteArrayOutputStream(wire.length);
+		OutputStream out = octet ? sink : new NetasciiOutputStream(new BufferedOutputStream(sink));
+		BenchUtils.writeBlocks(wire,out);
+		out.close();
+		return sink.toByteArray();
+	}
+
+	private static byte[] generateText(int size) {
+		Random random = new Random(42);
+		byte[] data = new byte[size];
+		byte[] newLine = System.lineSeparator().getBytes();
+		int i=0;
+		while(i<size){
+			int lineLength = random.nextInt(100);
+			for(int j=0;j<lineLength && i<size;j++)
+				data[i++]=(byte) (' '+random.nextInt(95));
+			for(int j=0;j<newLine.length && i<size;j++)
+				data[i++]=newLine[j];
+		}
+		return data;
+	}
+}